@@ -0,0 +1,64 @@
+/*
+ * dup1.c
+ *
+ * Test dup and dup2: a duplicated descriptor shares the file position,
+ * dup returns the lowest free descriptor, dup2 closes its target first,
+ * and the file stays open until every descriptor is closed.
+ */
+
+#include "syscall.h"
+
+int main(int argc, char *argv[])
+{
+    char buf[16];
+    int fd, fd2, r;
+
+    fd = creat("dup1.out");
+    if (fd < 0)
+    {
+        printf("...failed to create dup1.out\n");
+        exit(-1);
+    }
+
+    // the lowest free descriptor comes after stdin, stdout and fd
+    fd2 = dup(fd);
+    if (fd2 != fd + 1)
+    {
+        printf("...failed: dup returned %d, expected %d\n", fd2, fd + 1);
+        exit(-1);
+    }
+
+    // writes through either descriptor advance the same position
+    write(fd, "abc", 3);
+    write(fd2, "def", 3);
+    close(fd);
+
+    r = pread(fd2, buf, 6, 0);
+    if (r != 6 || buf[0] != 'a' || buf[3] != 'd')
+    {
+        printf("...failed: read back %d bytes through the dup\n", r);
+        exit(-1);
+    }
+
+    // dup2 onto stdout sends printf output to the file
+    if (dup2(fd2, fdStandardOutput) != fdStandardOutput)
+    {
+        printf("...failed: dup2 onto stdout\n");
+        exit(-1);
+    }
+    write(fdStandardOutput, "ghi", 3);
+    close(fd2);
+
+    fd = open("dup1.out");
+    r = read(fd, buf, 16);
+    close(fd);
+    close(fdStandardOutput);
+    unlink("dup1.out");
+
+    if (r != 9 || buf[6] != 'g')
+        exit(-1);
+    if (dup(99) != -1 || dup2(fd, -1) != -1)
+        exit(-1);
+
+    return 0;
+}
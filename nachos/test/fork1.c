@@ -0,0 +1,61 @@
+/*
+ * fork1.c
+ *
+ * Test fork: the parent and the child each change their own copy of a
+ * global array and of a stack variable; neither should see the other's
+ * writes. The child also writes to a file the parent opened.
+ */
+
+#include "syscall.h"
+
+#define N 2048
+
+int data[N];
+
+int main(int argc, char *argv[])
+{
+    int i, pid, status, r, local = 7;
+    int fd = creat("fork1.out");
+
+    for (i = 0; i < N; i++)
+        data[i] = i;
+
+    pid = fork();
+    if (pid < 0)
+    {
+        printf("...failed to fork (pid = %d)\n", pid);
+        exit(-1);
+    }
+
+    if (pid == 0)
+    {
+        for (i = 0; i < N; i++)
+            data[i] = -i;
+        local = 8;
+        r = write(fd, "child\n", 6);
+        exit(r == 6 ? local : -1);
+    }
+
+    // the child's writes must not show up here
+    data[0] = 100;
+    for (i = 1; i < N; i++)
+    {
+        if (data[i] != i)
+        {
+            printf("...failed: data[%d] = %d in parent\n", i, data[i]);
+            exit(-1);
+        }
+    }
+
+    r = join(pid, &status);
+    if (r != 1 || status != 8 || local != 7)
+    {
+        printf("...failed (join = %d, status = %d, local = %d)\n", r, status, local);
+        exit(-1);
+    }
+    close(fd);
+    unlink("fork1.out");
+
+    printf("...passed\n");
+    return 0;
+}
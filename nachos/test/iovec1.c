@@ -0,0 +1,72 @@
+/*
+ * iovec1.c
+ *
+ * Test writev/readv and pwrite/pread: write a file from several buffers
+ * in one call, read it back into several buffers, then overwrite and
+ * read single bytes at explicit offsets without moving the file position.
+ */
+
+#include "syscall.h"
+
+void check(int cond, char *what, int r)
+{
+    if (!cond)
+    {
+        printf("...failed: %s (r = %d)\n", what, r);
+        exit(-1);
+    }
+}
+
+int main(int argc, char *argv[])
+{
+    char *file = "iovec1.out";
+    char a[4], b[6], c[8];
+    struct iovec iov[3];
+    int fd, r, i;
+
+    fd = creat(file);
+    check(fd >= 0, "creat", fd);
+
+    iov[0].iov_base = "abc";
+    iov[0].iov_len = 3;
+    iov[1].iov_base = "defgh";
+    iov[1].iov_len = 5;
+    iov[2].iov_base = "ij";
+    iov[2].iov_len = 2;
+    r = writev(fd, iov, 3);
+    check(r == 10, "writev", r);
+
+    // overwrite "def" with "DEF" without moving the file position
+    r = pwrite(fd, "DEF", 3, 3);
+    check(r == 3, "pwrite", r);
+    r = write(fd, "k", 1);
+    check(r == 1, "write after pwrite", r);
+    close(fd);
+
+    fd = open(file);
+    check(fd >= 0, "open", fd);
+
+    r = pread(fd, a, 1, 10);
+    check(r == 1 && a[0] == 'k', "pread", r);
+
+    // the short read ends inside c
+    iov[0].iov_base = a;
+    iov[0].iov_len = 4;
+    iov[1].iov_base = b;
+    iov[1].iov_len = 6;
+    iov[2].iov_base = c;
+    iov[2].iov_len = 8;
+    r = readv(fd, iov, 3);
+    check(r == 11, "readv", r);
+    check(a[0] == 'a' && a[3] == 'D', "readv first buffer", r);
+    check(b[0] == 'E' && b[5] == 'j', "readv second buffer", r);
+    check(c[0] == 'k', "readv third buffer", r);
+
+    r = pread(fdStandardInput, a, 1, 0);
+    check(r == -1, "pread on a stream", r);
+    close(fd);
+    unlink(file);
+
+    printf("...passed\n");
+    return 0;
+}
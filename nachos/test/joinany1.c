@@ -0,0 +1,59 @@
+/*
+ * joinany1.c
+ *
+ * Test join(-1, &status): exec several children, then reap them in
+ * whatever order they exit instead of joining each one by pid.
+ */
+
+#include "syscall.h"
+
+#define NUM_CHILDREN 3
+
+int main(int argc, char *argv[])
+{
+    char *prog = "exit1.coff";
+    int pids[NUM_CHILDREN];
+    int i, j, pid, status, found;
+
+    for (i = 0; i < NUM_CHILDREN; i++)
+    {
+        pids[i] = exec(prog, 0, 0);
+        if (pids[i] < 0)
+        {
+            printf("...failed to exec %s (pid = %d)\n", prog, pids[i]);
+            exit(-1);
+        }
+    }
+
+    for (i = 0; i < NUM_CHILDREN; i++)
+    {
+        status = 0;
+        pid = join(-1, &status);
+        found = 0;
+        for (j = 0; j < NUM_CHILDREN; j++)
+        {
+            if (pids[j] == pid)
+            {
+                pids[j] = -1;
+                found = 1;
+            }
+        }
+        if (!found)
+        {
+            printf("...failed (join(-1) returned %d)\n", pid);
+            exit(-1);
+        }
+        printf("reaped child %d (status = %d)\n", pid, status);
+    }
+
+    // every child has been reaped, so there is nothing left to wait for
+    pid = join(-1, &status);
+    if (pid != -1)
+    {
+        printf("...failed (join(-1) with no children returned %d)\n", pid);
+        exit(-1);
+    }
+
+    printf("...passed\n");
+    return 0;
+}
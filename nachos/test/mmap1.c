@@ -0,0 +1,63 @@
+/*
+ * mmap1.c
+ *
+ * Test mmap: map a file that spans several pages, check its contents
+ * through memory, change a byte on two different pages, and check that
+ * the changes reach the file once the descriptor is closed.
+ */
+
+#include "syscall.h"
+
+#define FILE_SIZE 3000
+#define MAP_ADDR ((char *) 0x40000)
+
+void check(int cond, char *what, int r)
+{
+    if (!cond)
+    {
+        printf("...failed: %s (r = %d)\n", what, r);
+        exit(-1);
+    }
+}
+
+int main(int argc, char *argv[])
+{
+    char *file = "mmap1.out";
+    char buf[FILE_SIZE];
+    char *p = MAP_ADDR;
+    int fd, r, i;
+
+    for (i = 0; i < FILE_SIZE; i++)
+        buf[i] = 'a' + i % 26;
+
+    fd = creat(file);
+    check(fd >= 0, "creat", fd);
+    r = write(fd, buf, FILE_SIZE);
+    check(r == FILE_SIZE, "write", r);
+
+    r = mmap(fd, p);
+    check(r == FILE_SIZE, "mmap", r);
+
+    // the file can only be reached through the mapping now
+    r = read(fd, buf, 1);
+    check(r == -1, "read of a mapped file", r);
+
+    for (i = 0; i < FILE_SIZE; i++)
+        check(p[i] == 'a' + i % 26, "mapped contents", i);
+
+    p[0] = 'X';
+    p[FILE_SIZE - 1] = 'Y';
+    close(fd);
+
+    fd = open(file);
+    check(fd >= 0, "open", fd);
+    r = read(fd, buf, FILE_SIZE);
+    check(r == FILE_SIZE, "read back", r);
+    check(buf[0] == 'X' && buf[FILE_SIZE - 1] == 'Y', "written back", r);
+    check(buf[1] == 'b', "untouched byte", r);
+    close(fd);
+    unlink(file);
+
+    printf("...passed\n");
+    return 0;
+}
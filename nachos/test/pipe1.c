@@ -0,0 +1,59 @@
+/*
+ * pipe1.c
+ *
+ * Test pipe: run echo.coff with its standard output pointed at a pipe,
+ * the way sh.coff would for "echo hello | ...", and read its output back
+ * until end of file.
+ */
+
+#include "syscall.h"
+
+char buf[256];
+
+int main(int argc, char *argv[])
+{
+    char *args[2];
+    int fds[2], out, pid, status, n, total = 0;
+
+    if (pipe(fds) != 0)
+    {
+        printf("...failed to create a pipe\n");
+        exit(-1);
+    }
+
+    // the child inherits stdout, so point it at the pipe for the exec
+    out = dup(fdStandardOutput);
+    dup2(fds[1], fdStandardOutput);
+
+    args[0] = "echo.coff";
+    args[1] = "hello";
+    pid = exec("echo.coff", 2, args);
+
+    dup2(out, fdStandardOutput);
+    close(out);
+    close(fds[1]);
+
+    if (pid < 0)
+    {
+        printf("...failed to exec echo.coff\n");
+        exit(-1);
+    }
+
+    // read() returns 0 once echo exits and the last write end is closed
+    while ((n = read(fds[0], buf + total, sizeof(buf) - 1 - total)) > 0)
+        total += n;
+    buf[total] = '\0';
+    close(fds[0]);
+
+    join(pid, &status);
+
+    // echo prints "2 arguments", "arg 0: echo.coff", "arg 1: hello"
+    if (n < 0 || total == 0 || buf[0] != '2' || buf[total - 2] != 'o')
+    {
+        printf("...failed (read %d bytes: %s)\n", total, buf);
+        exit(-1);
+    }
+
+    printf("...passed\n");
+    return 0;
+}
@@ -0,0 +1,71 @@
+/*
+ * sbrk1.c
+ *
+ * Test sbrk: grow the heap well past the size of the program, check that
+ * new memory reads as zero and keeps what is written to it, then give it
+ * back and grow it again.
+ */
+
+#include "syscall.h"
+
+#define HEAP_SIZE (64 * 1024)
+
+int main(int argc, char *argv[])
+{
+    char *heap, *end;
+    int i;
+
+    heap = (char *) sbrk(HEAP_SIZE);
+    if (heap == (char *) -1)
+    {
+        printf("...failed to grow the heap\n");
+        exit(-1);
+    }
+
+    end = (char *) sbrk(0);
+    if (end != heap + HEAP_SIZE)
+    {
+        printf("...failed: break is %x, expected %x\n", end, heap + HEAP_SIZE);
+        exit(-1);
+    }
+
+    for (i = 0; i < HEAP_SIZE; i++)
+    {
+        if (heap[i] != 0)
+        {
+            printf("...failed: heap[%d] = %d before it was written\n", i, heap[i]);
+            exit(-1);
+        }
+    }
+
+    // touch every other page so some stay untouched
+    for (i = 0; i < HEAP_SIZE; i += 2048)
+        heap[i] = (char) (i >> 11);
+    for (i = 0; i < HEAP_SIZE; i += 2048)
+    {
+        if (heap[i] != (char) (i >> 11))
+        {
+            printf("...failed: heap[%d] lost its value\n", i);
+            exit(-1);
+        }
+    }
+
+    // shrinking below the start of the heap fails
+    if (sbrk(-2 * HEAP_SIZE) != (void *) -1)
+    {
+        printf("...failed: shrank below the heap\n");
+        exit(-1);
+    }
+
+    // memory given back and taken again is zero
+    sbrk(-HEAP_SIZE);
+    heap = (char *) sbrk(4096);
+    if (heap[0] != 0)
+    {
+        printf("...failed: reused heap not zeroed\n");
+        exit(-1);
+    }
+
+    printf("...passed\n");
+    return 0;
+}
@@ -67,3 +67,12 @@ name:				; \
 	SYSCALLSTUB(mmap, syscallMmap)
 	SYSCALLSTUB(connect, syscallConnect)
 	SYSCALLSTUB(accept, syscallAccept)
+	SYSCALLSTUB(readv, syscallReadv)
+	SYSCALLSTUB(writev, syscallWritev)
+	SYSCALLSTUB(pread, syscallPread)
+	SYSCALLSTUB(pwrite, syscallPwrite)
+	SYSCALLSTUB(fork, syscallFork)
+	SYSCALLSTUB(dup, syscallDup)
+	SYSCALLSTUB(dup2, syscallDup2)
+	SYSCALLSTUB(pipe, syscallPipe)
+	SYSCALLSTUB(sbrk, syscallSbrk)
@@ -25,6 +25,15 @@
 #define syscallMmap		10
 #define syscallConnect		11
 #define syscallAccept		12
+#define syscallReadv		13
+#define syscallWritev		14
+#define syscallPread		15
+#define syscallPwrite		16
+#define syscallFork		17
+#define syscallDup		18
+#define syscallDup2		19
+#define syscallPipe		20
+#define syscallSbrk		21
 
 /* Don't want the assembler to see C code, but start.s includes syscall.h. */
 #ifndef START_S
@@ -67,6 +76,31 @@ void halt();
  */
 void exit(int status);
 
+/**
+ * Create a new process that is a copy of the calling process. Both processes
+ * continue from the return of fork(): in the parent it returns the PID of the
+ * child, which can be passed to join(), and in the child it returns 0. The
+ * child shares the parent's open files.
+ *
+ * Memory is not copied up front; a page is copied the first time either
+ * process writes to it. Processes that have used mmap() cannot fork.
+ *
+ * Returns -1 in the parent if the process could not be created.
+ */
+int fork(void);
+
+/**
+ * Move the end of the heap by increment bytes and return the old end, so
+ * sbrk(0) returns the current end. The heap starts out empty, just above the
+ * program's arguments, and can shrink back to that point but not below it.
+ * New heap memory reads as zero; with virtual memory, pages take no physical
+ * memory until they are first touched.
+ *
+ * Returns the old end of the heap, or (void *) -1 if the heap could not be
+ * resized.
+ */
+void *sbrk(int increment);
+
 /**
  * Execute the program stored in the specified file, with the specified
  * arguments, in a new child process. The child process has a new unique
@@ -105,6 +139,10 @@ int exec(char *file, int argc, char *argv[]);
  * If the child exited normally, returns 1. If the child exited as a result of
  * an unhandled exception, returns 0. If processID does not refer to a child
  * process of the current process, returns -1.
+ *
+ * If processID is -1, waits for whichever child of the current process exits
+ * first, disowns it, stores its exit status as above, and returns its process
+ * ID instead of 1 or 0. Returns -1 if the current process has no children.
  */
 int join(int processID, int *status);
 
@@ -181,6 +219,44 @@ int read(int fileDescriptor, void *buffer, int count);
  */
 int write(int fileDescriptor, void *buffer, int count);
 
+/* One buffer of a scatter/gather transfer, as used by readv() and writev(). */
+struct iovec {
+    void *iov_base;
+    int iov_len;
+};
+
+/**
+ * Like read(), but fill the iovcnt buffers described by iov in order, in a
+ * single system call. Each buffer is filled completely before the next one is
+ * used; a short read stops at the buffer it ended in. At most 16 buffers can
+ * be passed.
+ *
+ * Returns the total number of bytes read, or -1 if an error occurred.
+ */
+int readv(int fileDescriptor, struct iovec *iov, int iovcnt);
+
+/**
+ * Like write(), but write the iovcnt buffers described by iov in order, in a
+ * single system call. At most 16 buffers can be passed.
+ *
+ * Returns the total number of bytes written, or -1 if an error occurred.
+ */
+int writev(int fileDescriptor, struct iovec *iov, int iovcnt);
+
+/**
+ * Like read(), but read starting at offset in the file instead of at the
+ * current file position, which is left unchanged. Only works on files on
+ * disk; on a stream it returns -1.
+ */
+int pread(int fileDescriptor, void *buffer, int count, int offset);
+
+/**
+ * Like write(), but write starting at offset in the file instead of at the
+ * current file position, which is left unchanged. Only works on files on
+ * disk; on a stream it returns -1.
+ */
+int pwrite(int fileDescriptor, void *buffer, int count, int offset);
+
 /**
  * Close a file descriptor, so that it no longer refers to any file or
  * stream and may be reused. The resources associated with the file
@@ -190,6 +266,41 @@ int write(int fileDescriptor, void *buffer, int count);
  */
 int close(int fileDescriptor);
 
+/**
+ * Return a new file descriptor, the lowest one not in use, that refers to the
+ * same file or stream as fileDescriptor. The two descriptors share the file
+ * position, and the file stays open until both are closed.
+ *
+ * Returns the new file descriptor, or -1 if an error occurred.
+ */
+int dup(int fileDescriptor);
+
+/**
+ * Like dup(), but make newFileDescriptor refer to the file. If
+ * newFileDescriptor is already open it is closed first. Does nothing if the
+ * two descriptors are the same.
+ *
+ * Returns newFileDescriptor, or -1 if an error occurred.
+ */
+int dup2(int fileDescriptor, int newFileDescriptor);
+
+/**
+ * Create a pipe: a kernel buffer that one file descriptor writes into and
+ * another reads from. The read end is stored in fileDescriptors[0] and the
+ * write end in fileDescriptors[1].
+ *
+ * A read from an empty pipe waits for data, and returns 0 once every
+ * descriptor for the write end is closed. A write to a full pipe waits for
+ * room, and fails once every descriptor for the read end is closed.
+ *
+ * A process started with exec() inherits its parent's file descriptors 0 and
+ * 1, so a shell can connect programs by pointing them at pipe ends with
+ * dup2() before each exec().
+ *
+ * Returns 0 on success, or -1 if an error occurred.
+ */
+int pipe(int fileDescriptors[2]);
+
 /**
  * Delete a file from the file system. 
  *
@@ -211,7 +322,12 @@ int unlink(char *name);
  * descriptor will fail (returning -1) until the file descriptor is closed.
  *
  * When the file descriptor is closed, all remaining dirty pages of the map
- * will be flushed to disk and the map will be removed.
+ * will be flushed to disk and the map will be removed. Dirty pages are also
+ * written back to the file when they are evicted, and when the process exits.
+ *
+ * The address must be page-aligned and lie above the program, its stack and
+ * its arguments, and the map must not overlap another map. Pages are read
+ * from the file the first time they are touched.
  *
  * Returns the length of the file on success, or -1 if an error occurred.
  */
@@ -0,0 +1,134 @@
+package nachos.threads;
+
+import nachos.machine.*;
+
+/**
+ * A <tt>Barrier</tt> makes a fixed number of threads wait for each other. Each
+ * thread calls <tt>await()</tt>; the first <i>parties</i> - 1 callers go to
+ * sleep, and the last caller wakes all of them at once and returns without
+ * sleeping.
+ * 
+ * <p>
+ * The barrier is cyclic: once it trips it resets, so the same group of threads
+ * can use it again for the next round. Waiting threads sleep on a single
+ * thread queue and are moved to the ready queue in one pass when the barrier
+ * trips.
+ */
+public class Barrier {
+	/**
+	 * Allocate a new barrier.
+	 * 
+	 * @param parties the number of threads that must call <tt>await()</tt>
+	 *                before any of them return. Must be greater than zero.
+	 */
+	public Barrier(int parties) {
+		Lib.assertTrue(parties > 0);
+
+		this.parties = parties;
+	}
+
+	/**
+	 * Wait until <i>parties</i> threads have called <tt>await()</tt> on this
+	 * barrier.
+	 * 
+	 * @return the arrival index of the current thread: <i>parties</i> - 1 for
+	 *         the first thread to arrive, down to 0 for the last one (the one
+	 *         that tripped the barrier).
+	 */
+	public int await() {
+		boolean intStatus = Machine.interrupt().disable();
+
+		int index = parties - 1 - numWaiting;
+
+		if (index == 0) {
+			numWaiting = 0;
+			generation++;
+
+			KThread thread;
+			while ((thread = waitQueue.nextThread()) != null)
+				thread.ready();
+		}
+		else {
+			numWaiting++;
+			waitQueue.waitForAccess(KThread.currentThread());
+			KThread.sleep();
+		}
+
+		Machine.interrupt().restore(intStatus);
+		return index;
+	}
+
+	/**
+	 * Return the number of times this barrier has tripped.
+	 * 
+	 * @return the number of completed rounds.
+	 */
+	public int getGeneration() {
+		return generation;
+	}
+
+	/**
+	 * Return the number of threads required to trip this barrier.
+	 * 
+	 * @return the number of parties.
+	 */
+	public int getParties() {
+		return parties;
+	}
+
+	private static class BarrierTest implements Runnable {
+		BarrierTest(Barrier barrier, int[] arrived, int which) {
+			this.barrier = barrier;
+			this.arrived = arrived;
+			this.which = which;
+		}
+
+		public void run() {
+			for (int round = 0; round < 3; round++) {
+				arrived[round]++;
+				barrier.await();
+				Lib.assertTrue(arrived[round] == barrier.getParties(),
+						"thread " + which + " passed the barrier early");
+			}
+		}
+
+		private Barrier barrier;
+
+		private int[] arrived;
+
+		private int which;
+	}
+
+	/**
+	 * Test if this module is working.
+	 */
+	public static void selfTest() {
+		Lib.debug('t', "Enter Barrier selfTest");
+		System.out.println("\n Enter Barrier SelfTest \n");
+
+		Barrier barrier = new Barrier(4);
+		int[] arrived = new int[3];
+
+		KThread[] threads = new KThread[4];
+		for (int i = 0; i < threads.length; i++) {
+			threads[i] = new KThread(new BarrierTest(barrier, arrived, i))
+					.setName("barrier" + i);
+			threads[i].fork();
+		}
+		for (int i = 0; i < threads.length; i++)
+			threads[i].join();
+
+		Lib.assertTrue(barrier.getGeneration() == 3);
+		System.out.println("barrier tripped " + barrier.getGeneration()
+				+ " times");
+	}
+
+	private int parties;
+
+	private int numWaiting = 0;
+
+	private int generation = 0;
+
+	private ThreadQueue waitQueue = ThreadedKernel.scheduler
+			.newThreadQueue(false);
+}
@@ -60,7 +60,20 @@ public class Condition {
 	 *                      <tt>wake()</tt>, or <tt>wakeAll()</tt>.
 	 */
 	public Condition(Lock conditionLock) {
+		this(conditionLock, "(unnamed condition)");
+	}
+
+	/**
+	 * Allocate a new named condition variable. The name is used for
+	 * contention profiling only.
+	 * 
+	 * @param conditionLock the lock associated with this condition variable.
+	 * @param name          the name to give to this condition variable.
+	 */
+	public Condition(Lock conditionLock, String name) {
 		this.conditionLock = conditionLock;
+		this.name = name;
+		profile = ContentionProfiler.register("condition", name);
 
 		waitQueue = new LinkedList<Semaphore>();
 	}
@@ -80,11 +93,15 @@ public class Condition {
 	public void sleep() {
 		Lib.assertTrue(conditionLock.isHeldByCurrentThread());
 
-		Semaphore waiter = new Semaphore(0);
+		// the waiter semaphore is accounted to this condition, not on its own
+		Semaphore waiter = new Semaphore(0, null);
 		waitQueue.add(waiter);
 
+		long requestTime = (profile != null) ? ContentionProfiler.now() : 0;
 		conditionLock.release();
 		waiter.P();
+		if (profile != null)
+			profile.acquiredAfterWait(requestTime);
 		conditionLock.acquire();
 	}
 
@@ -110,10 +127,23 @@ public class Condition {
 			wake();
 	}
 
+	/**
+	 * Get the name of this condition variable.
+	 * 
+	 * @return the name given to this condition variable.
+	 */
+	public String getName() {
+		return name;
+	}
+
 	private Lock conditionLock;
 
 	private LinkedList<Semaphore> waitQueue;
 
+	private String name;
+
+	private ContentionProfiler.Record profile;
+
 	// Test programs should have exactly the same behavior with the
 	// Condition and Condition2 classes. You can first try a test with
 	// Condition, which is already provided for you, and then try it
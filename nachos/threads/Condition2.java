@@ -25,12 +25,36 @@ public class Condition2 {
 
 	private Lock conditionLock;
 	private LinkedList<KThread> waitQueue;
+	private String name;
+	private ContentionProfiler.Record profile;
 
 	public Condition2(Lock conditionLock) {
+		this(conditionLock, "(unnamed condition2)");
+	}
+
+	/**
+	 * Allocate a new named condition variable. The name is used for
+	 * contention profiling only.
+	 * 
+	 * @param conditionLock the lock associated with this condition variable.
+	 * @param name          the name to give to this condition variable.
+	 */
+	public Condition2(Lock conditionLock, String name) {
 		this.conditionLock = conditionLock;
+		this.name = name;
+		profile = ContentionProfiler.register("condition2", name);
 		waitQueue = new LinkedList<KThread>();
 	}
 
+	/**
+	 * Get the name of this condition variable.
+	 * 
+	 * @return the name given to this condition variable.
+	 */
+	public String getName() {
+		return name;
+	}
+
 	/**
 	 * Atomically release the associated lock and go to sleep on this condition
 	 * variable until another thread wakes it using <tt>wake()</tt>. The current
@@ -41,9 +65,12 @@ public class Condition2 {
 		Lib.assertTrue(conditionLock.isHeldByCurrentThread());
 		boolean intStatus = Machine.interrupt().disable();
 
+		long requestTime = (profile != null) ? ContentionProfiler.now() : 0;
 		waitQueue.add(KThread.currentThread());
 		conditionLock.release();
 		KThread.sleep();
+		if (profile != null)
+			profile.acquiredAfterWait(requestTime);
 		conditionLock.acquire();
 
 		Machine.interrupt().restore(intStatus);
@@ -99,11 +126,14 @@ public class Condition2 {
 		Lib.assertTrue(conditionLock.isHeldByCurrentThread());
 		boolean intStatus = Machine.interrupt().disable();
 
+		long requestTime = (profile != null) ? ContentionProfiler.now() : 0;
 		if (timeout > 0) {
 			waitQueue.add(KThread.currentThread());
 		}
 		conditionLock.release();
 		ThreadedKernel.alarm.waitUntil(timeout);
+		if (profile != null && timeout > 0)
+			profile.acquiredAfterWait(requestTime);
 		System.out.println("after waitUntil in sleepFor");
 		conditionLock.acquire();
 		waitQueue.remove(KThread.currentThread());
@@ -0,0 +1,195 @@
+package nachos.threads;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import nachos.machine.*;
+
+/**
+ * Optional contention instrumentation for the synchronization primitives
+ * (<tt>Lock</tt>, <tt>Semaphore</tt>, <tt>Condition</tt> and
+ * <tt>Condition2</tt>). Enabled by setting the <tt>nachos.conf</tt> key
+ * <tt>ThreadedKernel.lockProfile</tt> to <tt>true</tt>.
+ *
+ * <p>
+ * Every instance is profiled under its name, so instances sharing a name
+ * (for example all unnamed locks) are reported together. For each name the
+ * profiler records, in simulated ticks:
+ *
+ * <ul>
+ * <li>the number of acquires, and how many of them had to wait;
+ * <li>the total and maximum time spent waiting;
+ * <li>the total and maximum time the resource was held (locks only);
+ * <li>the total and maximum <i>wake-to-run</i> latency, from the moment a
+ * waiter is put back on the ready queue until it actually runs.
+ * </ul>
+ *
+ * <p>
+ * For semaphores an acquire is a <tt>P()</tt>; for condition variables it is
+ * a <tt>sleep()</tt>, which always waits. <tt>ThreadedKernel.terminate()</tt>
+ * prints the hottest entries, ranked by total wait time.
+ */
+public class ContentionProfiler {
+	/**
+	 * Prevent instantiation.
+	 */
+	private ContentionProfiler() {
+	}
+
+	/**
+	 * Turn profiling on or off. Only instances created while profiling is on
+	 * are recorded.
+	 *
+	 * @param enabled <tt>true</tt> to record contention.
+	 */
+	public static void setEnabled(boolean enabled) {
+		ContentionProfiler.enabled = enabled;
+	}
+
+	/**
+	 * Test if profiling is on.
+	 *
+	 * @return <tt>true</tt> if new instances are recorded.
+	 */
+	public static boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Return the record for a synchronization object, creating it if this is
+	 * the first instance with this name.
+	 *
+	 * @param kind the kind of object, e.g. "lock".
+	 * @param name the name of the object.
+	 * @return the record to update, or <tt>null</tt> if profiling is off or
+	 *         <tt>name</tt> is <tt>null</tt>.
+	 */
+	static Record register(String kind, String name) {
+		if (!enabled || name == null)
+			return null;
+
+		String key = kind + ":" + name;
+		Record record = records.get(key);
+		if (record == null) {
+			record = new Record(kind, name);
+			records.put(key, record);
+		}
+		return record;
+	}
+
+	/**
+	 * Return the current simulated time.
+	 */
+	static long now() {
+		return Machine.timer().getTime();
+	}
+
+	/**
+	 * Print the profiled objects, hottest first. Does nothing if profiling is
+	 * off.
+	 */
+	public static void printReport() {
+		if (!enabled)
+			return;
+
+		List<Record> ranked = new ArrayList<Record>(records.values());
+		Collections.sort(ranked, new Comparator<Record>() {
+			public int compare(Record r1, Record r2) {
+				if (r1.totalWait != r2.totalWait)
+					return r1.totalWait > r2.totalWait ? -1 : 1;
+				return r2.contended - r1.contended;
+			}
+		});
+
+		System.out.println("\nLock contention (ranked by total wait ticks):");
+		System.out.println(String.format(
+				"%-24s %-10s %9s %9s %11s %9s %11s %9s %9s %9s", "name", "kind",
+				"acquires", "contended", "wait", "maxWait", "hold", "maxHold",
+				"avgWake", "maxWake"));
+
+		int shown = 0;
+		for (Record record : ranked) {
+			if (shown++ == reportSize)
+				break;
+			System.out.println(record);
+		}
+	}
+
+	/**
+	 * The contention counters for one name.
+	 */
+	static class Record {
+		Record(String kind, String name) {
+			this.kind = kind;
+			this.name = name;
+		}
+
+		/**
+		 * Record an acquire that did not have to wait.
+		 */
+		void acquired() {
+			acquires++;
+		}
+
+		/**
+		 * Record an acquire by the current thread that had to wait, and
+		 * returned from <tt>KThread.sleep()</tt> just now.
+		 *
+		 * @param requestTime the time the current thread started waiting.
+		 */
+		void acquiredAfterWait(long requestTime) {
+			long time = now();
+
+			acquires++;
+			contended++;
+
+			long wait = time - requestTime;
+			totalWait += wait;
+			maxWait = Math.max(maxWait, wait);
+
+			long wake = time - KThread.currentThread().getReadyTime();
+			totalWakeLatency += wake;
+			maxWakeLatency = Math.max(maxWakeLatency, wake);
+		}
+
+		/**
+		 * Record the release of a resource.
+		 *
+		 * @param acquireTime the time the resource was acquired.
+		 */
+		void released(long acquireTime) {
+			long hold = now() - acquireTime;
+			totalHold += hold;
+			maxHold = Math.max(maxHold, hold);
+		}
+
+		public String toString() {
+			long avgWake = (contended == 0) ? 0 : totalWakeLatency / contended;
+
+			return String.format(
+					"%-24s %-10s %9d %9d %11d %9d %11d %9d %9d %9d", name, kind,
+					acquires, contended, totalWait, maxWait, totalHold, maxHold,
+					avgWake, maxWakeLatency);
+		}
+
+		private String kind, name;
+
+		private int acquires = 0, contended = 0;
+
+		private long totalWait = 0, maxWait = 0;
+
+		private long totalHold = 0, maxHold = 0;
+
+		private long totalWakeLatency = 0, maxWakeLatency = 0;
+	}
+
+	private static boolean enabled = false;
+
+	private static Map<String, Record> records = new HashMap<String, Record>();
+
+	private static final int reportSize = 20;
+}
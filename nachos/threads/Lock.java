@@ -23,6 +23,18 @@ public class Lock {
 	 * Allocate a new lock. The lock will initially be <i>free</i>.
 	 */
 	public Lock() {
+		this("(unnamed lock)");
+	}
+
+	/**
+	 * Allocate a new named lock. The lock will initially be <i>free</i>. The
+	 * name is used for debugging and contention profiling only.
+	 * 
+	 * @param name the name to give to this lock.
+	 */
+	public Lock(String name) {
+		this.name = name;
+		profile = ContentionProfiler.register("lock", name);
 	}
 
 	/**
@@ -36,15 +48,22 @@ public class Lock {
 		KThread thread = KThread.currentThread();
 
 		if (lockHolder != null) {
+			long requestTime = (profile != null) ? ContentionProfiler.now() : 0;
 			waitQueue.waitForAccess(thread);
 			KThread.sleep();
+			if (profile != null)
+				profile.acquiredAfterWait(requestTime);
 		}
 		else {
 			waitQueue.acquire(thread);
 			lockHolder = thread;
+			if (profile != null)
+				profile.acquired();
 		}
 
 		Lib.assertTrue(lockHolder == thread);
+		if (profile != null)
+			acquireTime = ContentionProfiler.now();
 
 		Machine.interrupt().restore(intStatus);
 	}
@@ -57,6 +76,9 @@ public class Lock {
 
 		boolean intStatus = Machine.interrupt().disable();
 
+		if (profile != null)
+			profile.released(acquireTime);
+
 		if ((lockHolder = waitQueue.nextThread()) != null)
 			lockHolder.ready();
 
@@ -72,8 +94,23 @@ public class Lock {
 		return (lockHolder == KThread.currentThread());
 	}
 
+	/**
+	 * Get the name of this lock.
+	 * 
+	 * @return the name given to this lock.
+	 */
+	public String getName() {
+		return name;
+	}
+
+	private String name;
+
 	private KThread lockHolder = null;
 
+	private ContentionProfiler.Record profile;
+
+	private long acquireTime;
+
 	private ThreadQueue waitQueue = ThreadedKernel.scheduler
 			.newThreadQueue(true);
 }
@@ -0,0 +1,220 @@
+package nachos.threads;
+
+import nachos.machine.*;
+
+/**
+ * A <tt>Phaser</tt> is a reusable barrier whose number of parties can change
+ * over time. Work is divided into numbered <i>phases</i>; a phase ends when
+ * every registered party has arrived, at which point the phase number
+ * advances and all parties waiting for that phase are released together.
+ * 
+ * <ul>
+ * <li><tt>register()</tt>: add a party to the current phase.
+ * <li><tt>arrive()</tt>: arrive at the current phase without waiting.
+ * <li><tt>arriveAndAwaitAdvance()</tt>: arrive and wait for the other parties.
+ * <li><tt>arriveAndDeregister()</tt>: arrive and stop participating.
+ * </ul>
+ * 
+ * <p>
+ * The phase number plays the role of a generation count, so a thread that is
+ * slow to wake up cannot confuse one phase with the next. Waiting threads share
+ * one thread queue, which is drained in a single pass when a phase ends.
+ */
+public class Phaser {
+	/**
+	 * Allocate a new phaser with no registered parties.
+	 */
+	public Phaser() {
+		this(0);
+	}
+
+	/**
+	 * Allocate a new phaser.
+	 * 
+	 * @param parties the number of parties initially registered. Must not be
+	 *                negative.
+	 */
+	public Phaser(int parties) {
+		Lib.assertTrue(parties >= 0);
+
+		this.parties = parties;
+	}
+
+	/**
+	 * Add a new party to this phaser. The party takes part starting with the
+	 * current phase.
+	 * 
+	 * @return the current phase number.
+	 */
+	public int register() {
+		boolean intStatus = Machine.interrupt().disable();
+
+		parties++;
+		int current = phase;
+
+		Machine.interrupt().restore(intStatus);
+		return current;
+	}
+
+	/**
+	 * Arrive at the current phase without waiting for the other parties.
+	 * 
+	 * @return the phase number arrived at.
+	 */
+	public int arrive() {
+		boolean intStatus = Machine.interrupt().disable();
+
+		int current = doArrive(false);
+
+		Machine.interrupt().restore(intStatus);
+		return current;
+	}
+
+	/**
+	 * Arrive at the current phase and deregister, so later phases no longer
+	 * wait for this party.
+	 * 
+	 * @return the phase number arrived at.
+	 */
+	public int arriveAndDeregister() {
+		boolean intStatus = Machine.interrupt().disable();
+
+		int current = doArrive(true);
+
+		Machine.interrupt().restore(intStatus);
+		return current;
+	}
+
+	/**
+	 * Arrive at the current phase and wait until every other registered party
+	 * has arrived as well.
+	 * 
+	 * @return the new phase number.
+	 */
+	public int arriveAndAwaitAdvance() {
+		boolean intStatus = Machine.interrupt().disable();
+
+		int current = doArrive(false);
+		while (phase == current) {
+			waitQueue.waitForAccess(KThread.currentThread());
+			KThread.sleep();
+		}
+		int next = phase;
+
+		Machine.interrupt().restore(intStatus);
+		return next;
+	}
+
+	/**
+	 * Return the current phase number. Phases are numbered from 0.
+	 * 
+	 * @return the current phase number.
+	 */
+	public int getPhase() {
+		return phase;
+	}
+
+	/**
+	 * Return the number of parties registered with this phaser.
+	 * 
+	 * @return the number of registered parties.
+	 */
+	public int getRegisteredParties() {
+		return parties;
+	}
+
+	/**
+	 * Record one arrival, ending the phase if it was the last one. Must be
+	 * called with interrupts disabled.
+	 */
+	private int doArrive(boolean deregister) {
+		Lib.assertTrue(Machine.interrupt().disabled());
+		Lib.assertTrue(arrived < parties, "more arrivals than parties");
+
+		int current = phase;
+
+		if (deregister)
+			parties--;
+		else
+			arrived++;
+
+		if (arrived == parties)
+			advance();
+
+		return current;
+	}
+
+	private void advance() {
+		arrived = 0;
+		phase++;
+
+		KThread thread;
+		while ((thread = waitQueue.nextThread()) != null)
+			thread.ready();
+	}
+
+	private static class PhaserTest implements Runnable {
+		PhaserTest(Phaser phaser, int[] progress, int which, int numPhases) {
+			this.phaser = phaser;
+			this.progress = progress;
+			this.which = which;
+			this.numPhases = numPhases;
+		}
+
+		public void run() {
+			for (int p = 0; p < numPhases; p++) {
+				progress[which] = p;
+				int next = phaser.arriveAndAwaitAdvance();
+				Lib.assertTrue(next == p + 1);
+				for (int i = 0; i < progress.length; i++) {
+					Lib.assertTrue(progress[i] == -1 || progress[i] >= p,
+							"thread " + i + " fell behind phase " + p);
+				}
+			}
+			progress[which] = -1;
+			phaser.arriveAndDeregister();
+		}
+
+		private Phaser phaser;
+
+		private int[] progress;
+
+		private int which;
+
+		private int numPhases;
+	}
+
+	/**
+	 * Test if this module is working.
+	 */
+	public static void selfTest() {
+		Lib.debug('t', "Enter Phaser selfTest");
+		System.out.println("\n Enter Phaser SelfTest \n");
+
+		Phaser phaser = new Phaser();
+		int[] progress = new int[3];
+
+		KThread[] threads = new KThread[3];
+		for (int i = 0; i < threads.length; i++) {
+			phaser.register();
+			// thread i drops out after i + 2 phases
+			threads[i] = new KThread(new PhaserTest(phaser, progress, i, i + 2))
+					.setName("phaser" + i);
+			threads[i].fork();
+		}
+		for (int i = 0; i < threads.length; i++)
+			threads[i].join();
+
+		Lib.assertTrue(phaser.getRegisteredParties() == 0);
+		System.out.println("phaser reached phase " + phaser.getPhase());
+	}
+
+	private int parties;
+
+	private int arrived = 0;
+
+	private int phase = 0;
+
+	private ThreadQueue waitQueue = ThreadedKernel.scheduler
+			.newThreadQueue(false);
+}
@@ -0,0 +1,258 @@
+package nachos.threads;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import nachos.machine.*;
+
+/**
+ * A <tt>ReadWriteLock</tt> is a lock with two modes, <i>shared</i> and
+ * <i>exclusive</i>. Any number of readers may hold the lock in shared mode at
+ * the same time, but a writer holds it alone:
+ *
+ * <ul>
+ * <li><tt>acquireRead()</tt>: atomically wait until no writer holds or is
+ * waiting for the lock, then join the set of readers.
+ * <li><tt>releaseRead()</tt>: leave the set of readers, handing the lock to a
+ * waiting writer if this was the last reader.
+ * <li><tt>acquireWrite()</tt>: atomically wait until the lock is <i>free</i>
+ * and then hold it exclusively.
+ * <li><tt>releaseWrite()</tt>: give the lock to the next waiting writer, or to
+ * every waiting reader if no writer is waiting.
+ * </ul>
+ *
+ * <p>
+ * Writers are preferred: once a writer is waiting, newly arriving readers
+ * queue behind it, so a steady stream of readers cannot starve writers. As
+ * with <tt>Lock</tt>, only the thread that acquired a mode may release it, and
+ * a thread must not acquire the lock again while it already holds it.
+ *
+ * <p>
+ * The holders of the lock are reported to the writers' queue, which transfers
+ * priority: a writer through <tt>ThreadQueue.acquire()</tt>, and each reader
+ * through <tt>ThreadQueue.acquireShared()</tt>, so that a scheduler that
+ * donates priority can donate to all current readers. None of the schedulers
+ * here donates through shared access yet; they ignore it.
+ */
+public class ReadWriteLock {
+	/**
+	 * Allocate a new read-write lock. The lock will initially be <i>free</i>.
+	 */
+	public ReadWriteLock() {
+		readers = new HashSet<KThread>();
+	}
+
+	/**
+	 * Atomically acquire this lock in shared mode. The current thread must not
+	 * already hold this lock in either mode.
+	 */
+	public void acquireRead() {
+		Lib.assertTrue(!isReadHeldByCurrentThread());
+		Lib.assertTrue(!isWriteHeldByCurrentThread());
+
+		boolean intStatus = Machine.interrupt().disable();
+		KThread thread = KThread.currentThread();
+
+		if (writer != null || numWaitingWriters > 0) {
+			readQueue.waitForAccess(thread);
+			KThread.sleep();
+		}
+		else {
+			readers.add(thread);
+			writeQueue.acquireShared(thread);
+		}
+
+		Lib.assertTrue(readers.contains(thread));
+
+		Machine.interrupt().restore(intStatus);
+	}
+
+	/**
+	 * Atomically release this lock from shared mode. If the current thread was
+	 * the last reader and a writer is waiting, the writer receives the lock.
+	 */
+	public void releaseRead() {
+		Lib.assertTrue(isReadHeldByCurrentThread());
+
+		boolean intStatus = Machine.interrupt().disable();
+		KThread thread = KThread.currentThread();
+
+		readers.remove(thread);
+		writeQueue.releaseShared(thread);
+
+		if (readers.isEmpty() && numWaitingWriters > 0) {
+			numWaitingWriters--;
+			writer = writeQueue.nextThread();
+			Lib.assertTrue(writer != null);
+			writer.ready();
+		}
+
+		Machine.interrupt().restore(intStatus);
+	}
+
+	/**
+	 * Atomically acquire this lock in exclusive mode. The current thread must
+	 * not already hold this lock in either mode.
+	 */
+	public void acquireWrite() {
+		Lib.assertTrue(!isReadHeldByCurrentThread());
+		Lib.assertTrue(!isWriteHeldByCurrentThread());
+
+		boolean intStatus = Machine.interrupt().disable();
+		KThread thread = KThread.currentThread();
+
+		if (writer != null || !readers.isEmpty()) {
+			numWaitingWriters++;
+			writeQueue.waitForAccess(thread);
+			KThread.sleep();
+		}
+		else {
+			writeQueue.acquire(thread);
+			writer = thread;
+		}
+
+		Lib.assertTrue(writer == thread);
+
+		Machine.interrupt().restore(intStatus);
+	}
+
+	/**
+	 * Atomically release this lock from exclusive mode. The next waiting
+	 * writer receives the lock; if there is none, all waiting readers are
+	 * admitted together.
+	 */
+	public void releaseWrite() {
+		Lib.assertTrue(isWriteHeldByCurrentThread());
+
+		boolean intStatus = Machine.interrupt().disable();
+
+		if (numWaitingWriters > 0) {
+			numWaitingWriters--;
+			writer = writeQueue.nextThread();
+			Lib.assertTrue(writer != null);
+			writer.ready();
+		}
+		else {
+			writer = null;
+
+			KThread reader;
+			while ((reader = readQueue.nextThread()) != null) {
+				readers.add(reader);
+				writeQueue.acquireShared(reader);
+				reader.ready();
+			}
+		}
+
+		Machine.interrupt().restore(intStatus);
+	}
+
+	/**
+	 * Test if the current thread holds this lock in shared mode.
+	 *
+	 * @return true if the current thread is one of the readers.
+	 */
+	public boolean isReadHeldByCurrentThread() {
+		return readers.contains(KThread.currentThread());
+	}
+
+	/**
+	 * Test if the current thread holds this lock in exclusive mode.
+	 *
+	 * @return true if the current thread is the writer.
+	 */
+	public boolean isWriteHeldByCurrentThread() {
+		return (writer == KThread.currentThread());
+	}
+
+	private static class Reader implements Runnable {
+		Reader(ReadWriteLock lock, int[] shared, int which) {
+			this.lock = lock;
+			this.shared = shared;
+			this.which = which;
+		}
+
+		public void run() {
+			for (int i = 0; i < 3; i++) {
+				lock.acquireRead();
+				int value = shared[0];
+				// readers may overlap; the value must not change under us
+				KThread.yield();
+				Lib.assertTrue(shared[0] == value, "writer ran during a read");
+				System.out.println("reader " + which + " saw " + value);
+				lock.releaseRead();
+				KThread.yield();
+			}
+		}
+
+		private ReadWriteLock lock;
+
+		private int[] shared;
+
+		private int which;
+	}
+
+	private static class Writer implements Runnable {
+		Writer(ReadWriteLock lock, int[] shared, int which) {
+			this.lock = lock;
+			this.shared = shared;
+			this.which = which;
+		}
+
+		public void run() {
+			for (int i = 0; i < 3; i++) {
+				lock.acquireWrite();
+				int value = shared[0];
+				KThread.yield();
+				shared[0] = value + 1;
+				System.out.println("writer " + which + " wrote " + shared[0]);
+				lock.releaseWrite();
+				KThread.yield();
+			}
+		}
+
+		private ReadWriteLock lock;
+
+		private int[] shared;
+
+		private int which;
+	}
+
+	/**
+	 * Test if this module is working.
+	 */
+	public static void selfTest() {
+		Lib.debug('t', "Enter ReadWriteLock selfTest");
+		System.out.println("\n Enter ReadWriteLock SelfTest \n");
+
+		ReadWriteLock lock = new ReadWriteLock();
+		int[] shared = new int[] { 0 };
+
+		KThread[] threads = new KThread[5];
+		for (int i = 0; i < 3; i++) {
+			threads[i] = new KThread(new Reader(lock, shared, i))
+					.setName("reader" + i);
+		}
+		for (int i = 3; i < 5; i++) {
+			threads[i] = new KThread(new Writer(lock, shared, i))
+					.setName("writer" + i);
+		}
+		for (int i = 0; i < threads.length; i++)
+			threads[i].fork();
+		for (int i = 0; i < threads.length; i++)
+			threads[i].join();
+
+		Lib.assertTrue(shared[0] == 6, "Expected 6 writes.");
+	}
+
+	private KThread writer = null;
+
+	private Set<KThread> readers;
+
+	private int numWaitingWriters = 0;
+
+	private ThreadQueue readQueue = ThreadedKernel.scheduler
+			.newThreadQueue(false);
+
+	private ThreadQueue writeQueue = ThreadedKernel.scheduler
+			.newThreadQueue(true);
+}
@@ -28,7 +28,21 @@ public class Semaphore {
 	 * @param initialValue the initial value of this semaphore.
 	 */
 	public Semaphore(int initialValue) {
+		this(initialValue, "(unnamed semaphore)");
+	}
+
+	/**
+	 * Allocate a new named semaphore. The name is used for contention
+	 * profiling only.
+	 * 
+	 * @param initialValue the initial value of this semaphore.
+	 * @param name         the name to give to this semaphore, or <tt>null</tt>
+	 *                     to leave it out of contention profiling.
+	 */
+	public Semaphore(int initialValue, String name) {
 		value = initialValue;
+		this.name = name;
+		profile = ContentionProfiler.register("semaphore", name);
 	}
 
 	/**
@@ -38,11 +52,16 @@ public class Semaphore {
 		boolean intStatus = Machine.interrupt().disable();
 
 		if (value == 0) {
+			long requestTime = (profile != null) ? ContentionProfiler.now() : 0;
 			waitQueue.waitForAccess(KThread.currentThread());
 			KThread.sleep();
+			if (profile != null)
+				profile.acquiredAfterWait(requestTime);
 		}
 		else {
 			value--;
+			if (profile != null)
+				profile.acquired();
 		}
 
 		Machine.interrupt().restore(intStatus);
@@ -99,8 +118,21 @@ public class Semaphore {
 		}
 	}
 
+	/**
+	 * Get the name of this semaphore.
+	 * 
+	 * @return the name given to this semaphore.
+	 */
+	public String getName() {
+		return name;
+	}
+
 	private int value;
 
+	private String name;
+
+	private ContentionProfiler.Record profile;
+
 	private ThreadQueue waitQueue = ThreadedKernel.scheduler
 			.newThreadQueue(false);
 }
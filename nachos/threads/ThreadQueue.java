@@ -90,6 +90,31 @@ public abstract class ThreadQueue {
 	 */
 	public abstract void acquire(KThread thread);
 
+	/**
+	 * Notify this thread queue that a thread has received <i>shared</i> access
+	 * to the resource. Unlike <tt>acquire()</tt>, any number of threads may
+	 * hold shared access at once (e.g. the readers of a
+	 * <tt>ReadWriteLock</tt>), and threads waiting on this queue should donate
+	 * priority to every one of them.
+	 *
+	 * <p>
+	 * Schedulers that do not transfer priority can ignore this, which is what
+	 * the default implementation does.
+	 *
+	 * @param thread the thread that now shares access.
+	 */
+	public void acquireShared(KThread thread) {
+	}
+
+	/**
+	 * Notify this thread queue that a thread has given up the shared access
+	 * it received through <tt>acquireShared()</tt>.
+	 *
+	 * @param thread the thread that no longer shares access.
+	 */
+	public void releaseShared(KThread thread) {
+	}
+
 	/**
 	 * Print out all the threads waiting for access, in no particular order.
 	 */
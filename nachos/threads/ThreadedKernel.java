@@ -31,6 +31,9 @@ public class ThreadedKernel extends Kernel {
 		else
 			fileSystem = null;
 
+		ContentionProfiler.setEnabled(Config.getBoolean(
+				"ThreadedKernel.lockProfile", false));
+
 		Lib.debug('t', "Enter ThreadedKernel");
 		// start threading
 		new KThread(null);
@@ -59,6 +62,11 @@ public class ThreadedKernel extends Kernel {
 		// KThread.selfTest();
 		// Condition2.selfTest();
 		// Rendezvous.selfTest();
+		// ReadWriteLock.selfTest();
+		// Barrier.selfTest();
+		// CountDownLatch.selfTest();
+		// Phaser.selfTest();
+		// GameMatch.selfTest();
 
 	}
 
@@ -73,6 +81,7 @@ public class ThreadedKernel extends Kernel {
 	 * Terminate this kernel. Never returns.
 	 */
 	public void terminate() {
+		ContentionProfiler.printReport();
 		Machine.halt();
 	}
 
@@ -0,0 +1,450 @@
+package nachos.userprog;
+
+import java.io.EOFException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import nachos.machine.*;
+import nachos.threads.*;
+
+/**
+ * An LRU cache of parsed executables. Running a program that was run
+ * recently, such as <tt>echo.coff</tt> started again and again from
+ * <tt>sh.coff</tt>, does not reopen the file or reread its COFF header and
+ * section table; the process gets the cached entry point and section layout
+ * instead.
+ *
+ * <p>
+ * A cache entry keeps its executable open, and the sections of every process
+ * running it load their pages through that one handle. Before an entry is
+ * reused its recorded length is checked against the file's current length.
+ * The stub file system does not expose modification times, so the kernel
+ * also invalidates an entry whenever it creates, truncates or removes the
+ * file. An entry that is invalidated or pushed out while processes are still
+ * running it is closed when the last of them exits.
+ *
+ * <p>
+ * The cached sections can also load a run of pages with a single read of the
+ * executable (see <tt>Section.loadPages()</tt>), where a plain
+ * <tt>CoffSection</tt> reads one page at a time.
+ */
+public class CoffCache {
+	/**
+	 * Allocate a new cache.
+	 *
+	 * @param capacity the number of executables to keep parsed. With a
+	 * capacity of 0 nothing is kept, and every <tt>open()</tt> parses the
+	 * executable again.
+	 */
+	public CoffCache(final int capacity) {
+		Lib.assertTrue(capacity >= 0);
+
+		// access order, so the eldest entry is the least recently used
+		entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+			protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+				if (size() <= capacity)
+					return false;
+				drop(eldest.getValue());
+				return true;
+			}
+		};
+	}
+
+	/**
+	 * Return a loader for the named executable, parsing it only if it is not
+	 * already cached. The caller must <tt>close()</tt> the loader when it no
+	 * longer needs the executable.
+	 *
+	 * @param name the name of the file containing the executable.
+	 * @return the loader, or <tt>null</tt> if the file could not be opened or
+	 * is not a valid executable.
+	 */
+	public CachedCoff open(String name) {
+		lock.acquire();
+
+		Entry entry = entries.get(name);
+		if (entry != null && entry.file.length() != entry.length) {
+			Lib.debug(dbgProcess, "CoffCache: " + name + " changed length");
+			entries.remove(name);
+			drop(entry);
+			entry = null;
+		}
+
+		if (entry != null) {
+			numHits++;
+		}
+		else {
+			numMisses++;
+			entry = parse(name);
+			if (entry == null) {
+				lock.release();
+				return null;
+			}
+			entries.put(name, entry);
+			if (!entries.containsKey(name))
+				entry.cached = false;
+		}
+
+		entry.refs++;
+		lock.release();
+
+		return new CachedCoff(this, entry);
+	}
+
+	/**
+	 * Forget the named executable, if it is cached. Called when the file is
+	 * created, truncated or removed.
+	 *
+	 * @param name the name of the file.
+	 */
+	public void invalidate(String name) {
+		lock.acquire();
+
+		Entry entry = entries.remove(name);
+		if (entry != null)
+			drop(entry);
+
+		lock.release();
+	}
+
+	/**
+	 * Print the number of hits and misses.
+	 */
+	public void printStats() {
+		System.out.println("Executable cache: " + numHits + " hits, "
+				+ numMisses + " misses");
+	}
+
+	/**
+	 * Open and parse an executable. Called with the lock held.
+	 */
+	private Entry parse(String name) {
+		OpenFile file = ThreadedKernel.fileSystem.open(name, false);
+		if (file == null) {
+			Lib.debug(dbgProcess, "\topen failed");
+			return null;
+		}
+
+		Coff coff;
+		try {
+			coff = new Coff(file);
+		} catch (EOFException e) {
+			file.close();
+			Lib.debug(dbgProcess, "\tcoff load failed");
+			return null;
+		}
+
+		return new Entry(file, coff, readLayout(file, coff));
+	}
+
+	/**
+	 * Read where each section's contents are in the executable, so that its
+	 * pages can be loaded in bulk. A section whose layout cannot be read, for
+	 * example because the autograder supplied its own loader, is wrapped so
+	 * that it still loads one page at a time through the original section.
+	 * Called with the lock held.
+	 */
+	private Section[] readLayout(OpenFile file, Coff coff) {
+		int numSections = coff.getNumSections();
+		Section[] sections = new Section[numSections];
+
+		byte[] headers = new byte[Math.min(file.length(), maxHeadersLength)];
+		Lib.strictReadFile(file, 0, headers, 0, headers.length);
+
+		int offset = -1;
+		if (headers.length >= headerLength + aoutHeaderLength
+				&& Lib.bytesToUnsignedShort(headers, 2) == numSections)
+			offset = headerLength + Lib.bytesToUnsignedShort(headers, 16);
+
+		for (int s = 0; s < numSections; s++) {
+			CoffSection original = coff.getSection(s);
+			int entryOffset = offset + s * CoffSection.headerLength;
+
+			if (offset < 0
+					|| entryOffset + CoffSection.headerLength > headers.length
+					|| !original.getName().equals(Lib.bytesToString(headers,
+							entryOffset, 8))) {
+				sections[s] = new Section(original, false, null, 0, 0);
+				continue;
+			}
+
+			int size = Lib.bytesToInt(headers, entryOffset + 16);
+			int contentOffset = Lib.bytesToInt(headers, entryOffset + 20);
+			boolean executable = (Lib.bytesToInt(headers, entryOffset + 36)
+					& 0x0FFF) == 0x0020;
+			sections[s] = new Section(original, executable, file,
+					contentOffset, size);
+		}
+
+		return sections;
+	}
+
+	/**
+	 * Mark an entry as no longer cached, closing it if no process is using
+	 * it. Called with the lock held.
+	 */
+	private void drop(Entry entry) {
+		entry.cached = false;
+		if (entry.refs == 0)
+			entry.coff.close();
+	}
+
+	/**
+	 * Release one process's use of an entry.
+	 */
+	private void release(Entry entry) {
+		lock.acquire();
+
+		Lib.assertTrue(entry.refs > 0);
+		if (--entry.refs == 0 && !entry.cached)
+			entry.coff.close();
+
+		lock.release();
+	}
+
+	/**
+	 * A parsed executable.
+	 */
+	private static class Entry {
+		Entry(OpenFile file, Coff coff, Section[] sections) {
+			this.file = file;
+			this.coff = coff;
+			this.sections = sections;
+			this.length = file.length();
+			this.entryPoint = coff.getEntryPoint();
+		}
+
+		OpenFile file;
+
+		Coff coff;
+
+		Section[] sections;
+
+		/** The length of the file when it was parsed. */
+		int length;
+
+		int entryPoint;
+
+		/** The number of processes using this entry. */
+		int refs = 0;
+
+		/** <tt>false</tt> once the entry has left the cache. */
+		boolean cached = true;
+	}
+
+	/**
+	 * One process's view of a cached executable. Its sections are shared
+	 * with every other process running the same executable; closing it
+	 * releases the process's use of the cache entry rather than closing the
+	 * file.
+	 */
+	public static class CachedCoff extends Coff {
+		private CachedCoff(CoffCache cache, Entry entry) {
+			super();
+
+			this.cache = cache;
+			this.entry = entry;
+
+			entryPoint = entry.entryPoint;
+			sections = entry.sections.clone();
+		}
+
+		public Section getSection(int sectionNumber) {
+			return (Section) super.getSection(sectionNumber);
+		}
+
+		/**
+		 * Return the length of the executable file.
+		 *
+		 * @return the length of the file, in bytes.
+		 */
+		public int length() {
+			return entry.length;
+		}
+
+		public int getEntryPoint() {
+			Lib.assertTrue(sections != null);
+
+			return entryPoint;
+		}
+
+		public void close() {
+			if (sections == null)
+				return;
+
+			sections = null;
+			cache.release(entry);
+		}
+
+		private CoffCache cache;
+
+		private Entry entry;
+	}
+
+	/**
+	 * A section of a cached executable. It loads pages from the executable
+	 * itself rather than through the section it was parsed as, so that a run
+	 * of pages can be read at once.
+	 */
+	public static class Section extends CoffSection {
+		private Section(CoffSection original, boolean executable,
+				OpenFile file, int contentOffset, int size) {
+			super(original.getCoff(), original.getName(), executable,
+					original.isReadOnly(), original.getLength(),
+					original.getFirstVPN());
+
+			this.initialized = original.isInitialzed();
+			this.original = original;
+			this.file = file;
+			this.contentOffset = contentOffset;
+			this.size = size;
+		}
+
+		public void loadPage(int spn, int ppn) {
+			if (file == null) {
+				original.loadPage(spn, ppn);
+				return;
+			}
+
+			Lib.assertTrue(spn >= 0 && spn < numPages);
+			Lib.assertTrue(ppn >= 0
+					&& ppn < Machine.processor().getNumPhysPages());
+
+			byte[] memory = Machine.processor().getMemory();
+			int paddr = ppn * pageSize;
+			int initlen = initializedLength(spn, 1);
+
+			if (initlen > 0)
+				Lib.strictReadFile(file, contentOffset + spn * pageSize,
+						memory, paddr, initlen);
+
+			Arrays.fill(memory, paddr + initlen, paddr + pageSize, (byte) 0);
+		}
+
+		/**
+		 * Test if this section holds code.
+		 *
+		 * @return <tt>true</tt> if the section is executable.
+		 */
+		public boolean isExecutable() {
+			return executable;
+		}
+
+		/**
+		 * Return a table with a slot for each page of this section, where
+		 * the virtual memory layer records the frame holding the page so
+		 * that every process running this executable can share it. The
+		 * table is created on first use with every slot -1. It belongs to
+		 * the cache entry, so it goes away with the entry, and an
+		 * executable that is parsed again starts with a new one.
+		 *
+		 * @return the frame of each page, or -1.
+		 */
+		public int[] getResidentFrames() {
+			if (residentFrames == null) {
+				residentFrames = new int[getLength()];
+				Arrays.fill(residentFrames, -1);
+			}
+			return residentFrames;
+		}
+
+		/**
+		 * Load a run of pages from this section into physical memory. The
+		 * initialized part of the run is read from the executable in one
+		 * read and then copied into the frames, which need not be
+		 * contiguous; the rest of each frame is zero-filled.
+		 *
+		 * @param firstSpn the first page number within this section.
+		 * @param count the number of pages to load.
+		 * @param ppns the physical page to load each page into;
+		 * <tt>ppns[i]</tt> receives page <tt>firstSpn + i</tt>.
+		 */
+		public void loadPages(int firstSpn, int count, int[] ppns) {
+			loadPages(firstSpn, count, ppns, null);
+		}
+
+		/**
+		 * Load a run of pages from this section into physical memory, reading
+		 * through a buffer supplied by the caller, so that a page fault can
+		 * load a run without allocating.
+		 *
+		 * @param firstSpn the first page number within this section.
+		 * @param count the number of pages to load.
+		 * @param ppns the physical page to load each page into.
+		 * @param buf scratch space at least <i>count</i> pages long, or
+		 * <tt>null</tt> to allocate one.
+		 */
+		public void loadPages(int firstSpn, int count, int[] ppns, byte[] buf) {
+			Lib.assertTrue(firstSpn >= 0 && count >= 0
+					&& firstSpn + count <= numPages && ppns.length >= count);
+			Lib.assertTrue(buf == null || buf.length >= count * pageSize);
+
+			if (file == null) {
+				for (int i = 0; i < count; i++)
+					original.loadPage(firstSpn + i, ppns[i]);
+				return;
+			}
+
+			byte[] memory = Machine.processor().getMemory();
+			int initlen = initializedLength(firstSpn, count);
+
+			if (initlen > 0) {
+				if (buf == null)
+					buf = new byte[initlen];
+				Lib.strictReadFile(file, contentOffset + firstSpn * pageSize,
+						buf, 0, initlen);
+			}
+
+			for (int i = 0; i < count; i++) {
+				Lib.assertTrue(ppns[i] >= 0
+						&& ppns[i] < Machine.processor().getNumPhysPages());
+
+				int paddr = ppns[i] * pageSize;
+				int amount = Math.max(0,
+						Math.min(pageSize, initlen - i * pageSize));
+
+				if (amount > 0)
+					System.arraycopy(buf, i * pageSize, memory, paddr, amount);
+
+				Arrays.fill(memory, paddr + amount, paddr + pageSize, (byte) 0);
+			}
+		}
+
+		/**
+		 * Return how many bytes of a run of pages are stored in the
+		 * executable.
+		 */
+		private int initializedLength(int firstSpn, int count) {
+			if (!initialized)
+				return 0;
+
+			return Math.max(0, Math.min(count * pageSize,
+					size - firstSpn * pageSize));
+		}
+
+		private CoffSection original;
+
+		private OpenFile file;
+
+		private int contentOffset, size;
+
+		private int[] residentFrames = null;
+	}
+
+	private LinkedHashMap<String, Entry> entries;
+
+	private Lock lock = new Lock("coffCacheLock");
+
+	private int numHits = 0, numMisses = 0;
+
+	private static final int pageSize = Processor.pageSize;
+
+	private static final int headerLength = 20, aoutHeaderLength = 28;
+
+	/** Room for the headers and the largest section table. */
+	private static final int maxHeadersLength = headerLength
+			+ aoutHeaderLength + 10 * CoffSection.headerLength;
+
+	private static final char dbgProcess = 'a';
+}
@@ -0,0 +1,245 @@
+package nachos.userprog;
+
+import nachos.machine.*;
+import nachos.threads.*;
+
+/**
+ * Keeps track of which physical frames are free, as a bitmap with one bit
+ * per frame packed 64 to a word. Frames can be allocated one at a time, as a
+ * batch, or as a run of contiguous frames, and a process's frames can be
+ * freed in one call when it exits.
+ *
+ * <p>
+ * The allocator also holds a low and a high watermark on the number of free
+ * frames, which the virtual memory layer can use to decide when to start and
+ * stop reclaiming frames ahead of demand.
+ */
+public class FrameAllocator {
+	/**
+	 * Allocate a new frame allocator with every frame free.
+	 *
+	 * @param numFrames the number of physical frames.
+	 */
+	public FrameAllocator(int numFrames) {
+		Lib.assertTrue(numFrames > 0);
+
+		this.numFrames = numFrames;
+		this.numFree = numFrames;
+
+		free = new long[(numFrames + 63) / 64];
+		for (int ppn = 0; ppn < numFrames; ppn++)
+			free[ppn / 64] |= 1L << (ppn % 64);
+
+		lowWatermark = Math.max(1, numFrames / 16);
+		highWatermark = Math.max(lowWatermark + 1, numFrames / 8);
+	}
+
+	/**
+	 * Allocate one frame, the lowest-numbered free one.
+	 *
+	 * @return the frame, or -1 if no frame is free.
+	 */
+	public int allocate() {
+		lock.acquire();
+
+		int ppn = -1;
+		for (int w = 0; w < free.length; w++) {
+			if (free[w] != 0) {
+				ppn = w * 64 + Long.numberOfTrailingZeros(free[w]);
+				take(ppn);
+				break;
+			}
+		}
+
+		lock.release();
+		return ppn;
+	}
+
+	/**
+	 * Allocate <i>count</i> frames at once. The frames are contiguous if a
+	 * long enough run is free; otherwise the lowest-numbered free frames are
+	 * used.
+	 *
+	 * @param count the number of frames needed.
+	 * @return the frames, or <tt>null</tt> if fewer than <i>count</i> are
+	 *         free, in which case nothing is allocated.
+	 */
+	public int[] allocate(int count) {
+		Lib.assertTrue(count >= 0);
+
+		lock.acquire();
+
+		if (count > numFree) {
+			lock.release();
+			return null;
+		}
+
+		int[] ppns = new int[count];
+		int first = findRun(count);
+		if (first != -1) {
+			for (int i = 0; i < count; i++) {
+				ppns[i] = first + i;
+				take(first + i);
+			}
+		}
+		else {
+			int i = 0;
+			for (int w = 0; i < count; w++) {
+				while (free[w] != 0 && i < count) {
+					int ppn = w * 64 + Long.numberOfTrailingZeros(free[w]);
+					take(ppn);
+					ppns[i++] = ppn;
+				}
+			}
+		}
+
+		lock.release();
+		return ppns;
+	}
+
+	/**
+	 * Allocate a run of <i>count</i> contiguous frames.
+	 *
+	 * @param count the number of frames needed.
+	 * @return the first frame of the run, or -1 if no run that long is free.
+	 */
+	public int allocateRun(int count) {
+		Lib.assertTrue(count > 0);
+
+		lock.acquire();
+
+		int first = findRun(count);
+		for (int i = 0; first != -1 && i < count; i++)
+			take(first + i);
+
+		lock.release();
+		return first;
+	}
+
+	/**
+	 * Free one frame.
+	 *
+	 * @param ppn the frame to free.
+	 */
+	public void free(int ppn) {
+		lock.acquire();
+
+		give(ppn);
+
+		lock.release();
+	}
+
+	/**
+	 * Free a batch of frames.
+	 *
+	 * @param ppns the frames to free.
+	 * @param count the number of entries of <i>ppns</i> to free.
+	 */
+	public void free(int[] ppns, int count) {
+		lock.acquire();
+
+		for (int i = 0; i < count; i++)
+			give(ppns[i]);
+
+		lock.release();
+	}
+
+	/**
+	 * Return the number of free frames.
+	 *
+	 * @return the number of free frames.
+	 */
+	public int getNumFree() {
+		return numFree;
+	}
+
+	/**
+	 * Set the free-frame watermarks.
+	 *
+	 * @param low reclaiming should start when fewer frames than this are
+	 *        free.
+	 * @param high reclaiming can stop once this many frames are free.
+	 */
+	public void setWatermarks(int low, int high) {
+		Lib.assertTrue(low >= 0 && low <= high && high <= numFrames);
+
+		lowWatermark = low;
+		highWatermark = high;
+	}
+
+	public int getLowWatermark() {
+		return lowWatermark;
+	}
+
+	public int getHighWatermark() {
+		return highWatermark;
+	}
+
+	/**
+	 * Test if free frames have run below the low watermark.
+	 *
+	 * @return <tt>true</tt> if frames should be reclaimed.
+	 */
+	public boolean isBelowLowWatermark() {
+		return numFree < lowWatermark;
+	}
+
+	/**
+	 * Test if free frames have reached the high watermark.
+	 *
+	 * @return <tt>true</tt> if enough frames are free.
+	 */
+	public boolean isAtHighWatermark() {
+		return numFree >= highWatermark;
+	}
+
+	/**
+	 * Return the first frame of a free run of <i>count</i> frames, or -1.
+	 * Called with the lock held.
+	 */
+	private int findRun(int count) {
+		if (count == 0)
+			return -1;
+
+		int runLength = 0;
+		for (int ppn = 0; ppn < numFrames; ppn++) {
+			// skip whole words with nothing free
+			if (ppn % 64 == 0 && free[ppn / 64] == 0) {
+				runLength = 0;
+				ppn += 63;
+				continue;
+			}
+
+			if ((free[ppn / 64] & (1L << (ppn % 64))) == 0)
+				runLength = 0;
+			else if (++runLength == count)
+				return ppn - count + 1;
+		}
+		return -1;
+	}
+
+	private void take(int ppn) {
+		Lib.assertTrue((free[ppn / 64] & (1L << (ppn % 64))) != 0);
+
+		free[ppn / 64] &= ~(1L << (ppn % 64));
+		numFree--;
+	}
+
+	private void give(int ppn) {
+		Lib.assertTrue(ppn >= 0 && ppn < numFrames);
+		Lib.assertTrue((free[ppn / 64] & (1L << (ppn % 64))) == 0,
+				"frame " + ppn + " freed twice");
+
+		free[ppn / 64] |= 1L << (ppn % 64);
+		numFree++;
+	}
+
+	private int numFrames, numFree;
+
+	/** One bit per frame, set when the frame is free. */
+	private long[] free;
+
+	private int lowWatermark, highWatermark;
+
+	private Lock lock = new Lock("frameAllocatorLock");
+}
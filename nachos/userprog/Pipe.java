@@ -0,0 +1,174 @@
+package nachos.userprog;
+
+import nachos.machine.*;
+import nachos.threads.*;
+
+/**
+ * A one-way byte channel between processes, held in a kernel ring buffer.
+ * Each end is an <tt>OpenFile</tt> that can be given to a file descriptor,
+ * duplicated and passed to children like any other open file.
+ *
+ * <p>
+ * A read waits until at least one byte is buffered and returns what is
+ * there, up to the number of bytes asked for. A write waits for room until
+ * all of its bytes are in the buffer. Once the write end is closed, reads
+ * return what is left and then 0 for end of file; once the read end is
+ * closed, writes fail. An end is closed when the last descriptor referring to
+ * it is.
+ */
+public class Pipe {
+	/**
+	 * Allocate a new pipe with an empty buffer and both ends open.
+	 */
+	public Pipe() {
+		readEnd = new End(false);
+		writeEnd = new End(true);
+	}
+
+	/**
+	 * Return the end of the pipe that can be read.
+	 *
+	 * @return the read end.
+	 */
+	public End getReadEnd() {
+		return readEnd;
+	}
+
+	/**
+	 * Return the end of the pipe that can be written.
+	 *
+	 * @return the write end.
+	 */
+	public End getWriteEnd() {
+		return writeEnd;
+	}
+
+	private int read(byte[] buf, int offset, int length) {
+		if (length <= 0)
+			return 0;
+
+		lock.acquire();
+
+		while (count == 0 && writeEnd.open)
+			dataReady.sleep();
+
+		int amount = Math.min(length, count);
+
+		// the buffered bytes may wrap around the end of the buffer
+		int first = Math.min(amount, bufferSize - head);
+		System.arraycopy(buffer, head, buf, offset, first);
+		System.arraycopy(buffer, 0, buf, offset + first, amount - first);
+		head = (head + amount) % bufferSize;
+		count -= amount;
+
+		if (amount > 0)
+			spaceReady.wakeAll();
+
+		lock.release();
+		return amount;
+	}
+
+	private int write(byte[] buf, int offset, int length) {
+		if (length <= 0)
+			return 0;
+
+		lock.acquire();
+
+		int written = 0;
+		while (written < length && readEnd.open) {
+			if (count == bufferSize) {
+				spaceReady.sleep();
+				continue;
+			}
+
+			int amount = Math.min(length - written, bufferSize - count);
+			int tail = (head + count) % bufferSize;
+			int first = Math.min(amount, bufferSize - tail);
+			System.arraycopy(buf, offset + written, buffer, tail, first);
+			System.arraycopy(buf, offset + written + first, buffer, 0, amount
+					- first);
+			count += amount;
+			written += amount;
+
+			dataReady.wakeAll();
+		}
+
+		lock.release();
+
+		// the reader went away before everything was written
+		return (written < length) ? -1 : written;
+	}
+
+	private void close(End end) {
+		lock.acquire();
+
+		end.open = false;
+		if (end == writeEnd)
+			dataReady.wakeAll();
+		else
+			spaceReady.wakeAll();
+
+		lock.release();
+	}
+
+	/**
+	 * One end of a pipe.
+	 */
+	public class End extends OpenFile {
+		private End(boolean writable) {
+			super(null, "pipe");
+			this.writable = writable;
+		}
+
+		/**
+		 * Test if a read from this end would return without waiting, because
+		 * data is buffered or the write end is closed.
+		 *
+		 * @return <tt>true</tt> if a read would not wait.
+		 */
+		public boolean isReadReady() {
+			lock.acquire();
+			boolean ready = count > 0 || !writeEnd.open;
+			lock.release();
+			return ready;
+		}
+
+		public int read(byte[] buf, int offset, int length) {
+			if (writable || !open)
+				return -1;
+
+			return Pipe.this.read(buf, offset, length);
+		}
+
+		public int write(byte[] buf, int offset, int length) {
+			if (!writable || !open)
+				return -1;
+
+			return Pipe.this.write(buf, offset, length);
+		}
+
+		public void close() {
+			if (open)
+				Pipe.this.close(this);
+		}
+
+		private boolean writable;
+
+		private boolean open = true;
+	}
+
+	private End readEnd, writeEnd;
+
+	private byte[] buffer = new byte[bufferSize];
+
+	/** The index of the oldest buffered byte, and the number buffered. */
+	private int head = 0, count = 0;
+
+	private Lock lock = new Lock("pipeLock");
+
+	private Condition dataReady = new Condition(lock, "pipeData");
+
+	private Condition spaceReady = new Condition(lock, "pipeSpace");
+
+	private static final int bufferSize = 4096;
+}
@@ -7,15 +7,39 @@ import nachos.userprog.*;
 /**
  * Provides a simple, synchronized interface to the machine's console. The
  * interface can also be accessed through <tt>OpenFile</tt> objects.
+ * 
+ * <p>
+ * In <i>buffered</i> mode, writes are copied into a kernel ring buffer and
+ * return at once; the send interrupt handler feeds the next queued byte to the
+ * device, so no thread has to wake up for each byte. A writer only blocks if
+ * the ring is full. <tt>flush()</tt> waits until everything queued has been
+ * sent.
  */
 public class SynchConsole {
 	/**
-	 * Allocate a new <tt>SynchConsole</tt>.
+	 * Allocate a new unbuffered <tt>SynchConsole</tt>.
 	 * 
 	 * @param console the underlying serial console to use.
 	 */
 	public SynchConsole(SerialConsole console) {
+		this(console, false);
+	}
+
+	/**
+	 * Allocate a new <tt>SynchConsole</tt>.
+	 * 
+	 * @param console  the underlying serial console to use.
+	 * @param buffered <tt>true</tt> if writes should be queued instead of
+	 *                 waiting for each byte to be sent.
+	 */
+	public SynchConsole(SerialConsole console, boolean buffered) {
 		this.console = console;
+		this.buffered = buffered;
+
+		if (buffered) {
+			outBuffer = new byte[outBufferSize];
+			outWaitQueue = ThreadedKernel.scheduler.newThreadQueue(false);
+		}
 
 		Runnable receiveHandler = new Runnable() {
 			public void run() {
@@ -41,26 +65,55 @@ public class SynchConsole {
 	 * and no byte was available.
 	 */
 	public int readByte(boolean block) {
-		int value;
-		boolean intStatus = Machine.interrupt().disable();
+		int value = -1;
 		readLock.acquire();
+		boolean intStatus = Machine.interrupt().disable();
 
-		if (block || charAvailable) {
-			charAvailable = false;
-			readWait.P();
-
-			value = console.readByte();
-			Lib.assertTrue(value != -1);
+		while (block && inCount == 0) {
+			inWaitQueue.waitForAccess(KThread.currentThread());
+			KThread.sleep();
 		}
-		else {
-			value = -1;
+
+		if (inCount > 0) {
+			value = inBuffer[inHead] & 0xFF;
+			inHead = (inHead + 1) % inBuffer.length;
+			inCount--;
+			receivePending();
 		}
 
-		readLock.release();
 		Machine.interrupt().restore(intStatus);
+		readLock.release();
 		return value;
 	}
 
+	/**
+	 * Take up to <i>length</i> bytes that have already arrived, without
+	 * waiting for more.
+	 * 
+	 * @param buf    the buffer to store the bytes in.
+	 * @param offset the first byte to store in the buffer.
+	 * @param length the maximum number of bytes to take.
+	 * @return the number of bytes taken, which may be 0.
+	 */
+	public int read(byte[] buf, int offset, int length) {
+		int total = 0;
+		readLock.acquire();
+		boolean intStatus = Machine.interrupt().disable();
+
+		while (total < length && inCount > 0) {
+			int amount = Math.min(length - total, Math.min(inCount, inBuffer.length - inHead));
+			System.arraycopy(inBuffer, inHead, buf, offset + total, amount);
+			inHead = (inHead + amount) % inBuffer.length;
+			inCount -= amount;
+			total += amount;
+			receivePending();
+		}
+
+		Machine.interrupt().restore(intStatus);
+		readLock.release();
+		return total;
+	}
+
 	/**
 	 * Return an <tt>OpenFile</tt> that can be used to read this as a file.
 	 * 
@@ -70,23 +123,118 @@ public class SynchConsole {
 		return new File(true, false);
 	}
 
+	/*
+	 * Move each byte into the input queue as soon as it arrives; this is also
+	 * what lets the device look for the next one. While the queue is full the
+	 * byte is left in the device, which stops polling until a reader makes room
+	 * and receivePending() collects it.
+	 */
 	private void receiveInterrupt() {
-		charAvailable = true;
-		readWait.V();
+		if (inCount == inBuffer.length) {
+			charPending = true;
+			return;
+		}
+
+		int value = console.readByte();
+		Lib.assertTrue(value != -1);
+		inBuffer[(inHead + inCount) % inBuffer.length] = (byte) value;
+		inCount++;
+
+		// readers hold readLock, so at most one can be waiting
+		KThread reader = inWaitQueue.nextThread();
+		if (reader != null)
+			reader.ready();
+	}
+
+	private void receivePending() {
+		if (charPending) {
+			charPending = false;
+			receiveInterrupt();
+		}
 	}
 
 	/**
-	 * Send a byte. Blocks until the send is complete.
+	 * Send a byte. Blocks until the send is complete, or in buffered mode until
+	 * the byte is queued.
 	 * 
 	 * @param value the byte to be sent (the upper 24 bits are ignored).
 	 */
 	public void writeByte(int value) {
+		if (buffered) {
+			write(new byte[] { (byte) value }, 0, 1);
+			return;
+		}
+
 		writeLock.acquire();
 		console.writeByte(value);
 		writeWait.P();
 		writeLock.release();
 	}
 
+	/**
+	 * Send <i>length</i> bytes from <i>buf</i>, starting at <i>offset</i>. The
+	 * bytes of one call are never interleaved with those of another. Blocks
+	 * until every byte is sent, or in buffered mode until every byte is queued.
+	 * 
+	 * @param buf    the bytes to send.
+	 * @param offset the first byte to send.
+	 * @param length the number of bytes to send.
+	 */
+	public void write(byte[] buf, int offset, int length) {
+		writeLock.acquire();
+
+		if (!buffered) {
+			for (int i = 0; i < length; i++) {
+				console.writeByte(buf[offset + i]);
+				writeWait.P();
+			}
+			writeLock.release();
+			return;
+		}
+
+		boolean intStatus = Machine.interrupt().disable();
+
+		while (length > 0) {
+			while (outCount == outBuffer.length) {
+				outWaitQueue.waitForAccess(KThread.currentThread());
+				KThread.sleep();
+			}
+
+			int tail = (outHead + outCount) % outBuffer.length;
+			int amount = Math.min(length, Math.min(outBuffer.length - outCount, outBuffer.length - tail));
+			System.arraycopy(buf, offset, outBuffer, tail, amount);
+			outCount += amount;
+			offset += amount;
+			length -= amount;
+
+			if (!sending) {
+				sending = true;
+				console.writeByte(outBuffer[outHead]);
+			}
+		}
+
+		Machine.interrupt().restore(intStatus);
+		writeLock.release();
+	}
+
+	/**
+	 * Wait until every queued byte has been sent. Returns immediately if this
+	 * console is not buffered.
+	 */
+	public void flush() {
+		if (!buffered)
+			return;
+
+		boolean intStatus = Machine.interrupt().disable();
+
+		while (outCount > 0) {
+			outWaitQueue.waitForAccess(KThread.currentThread());
+			KThread.sleep();
+		}
+
+		Machine.interrupt().restore(intStatus);
+	}
+
 	/**
 	 * Return an <tt>OpenFile</tt> that can be used to write this as a file.
 	 * 
@@ -97,20 +245,61 @@ public class SynchConsole {
 	}
 
 	private void sendInterrupt() {
-		writeWait.V();
+		if (!buffered) {
+			writeWait.V();
+			return;
+		}
+
+		// the byte at outHead has gone out; start on the next one
+		outHead = (outHead + 1) % outBuffer.length;
+		outCount--;
+		if (outCount > 0)
+			console.writeByte(outBuffer[outHead]);
+		else
+			sending = false;
+
+		// writers wait for the ring to drain to half, flush() for it to empty
+		if (outCount == outBuffer.length / 2 || outCount == 0) {
+			KThread thread;
+			while ((thread = outWaitQueue.nextThread()) != null)
+				thread.ready();
+		}
 	}
 
-	private boolean charAvailable = false;
+	/** Bytes received but not yet read, starting at inHead. */
+	private byte[] inBuffer = new byte[inBufferSize];
+
+	private int inHead = 0, inCount = 0;
+
+	/** A byte is waiting in the device because inBuffer was full. */
+	private boolean charPending = false;
+
+	/** The reader blocked in readByte(true), if any. */
+	private ThreadQueue inWaitQueue = ThreadedKernel.scheduler.newThreadQueue(false);
+
+	private static final int inBufferSize = 256;
 
 	private SerialConsole console;
 
-	private Lock readLock = new Lock();
+	private Lock readLock = new Lock("console readLock");
+
+	private Lock writeLock = new Lock("console writeLock");
+
+	private Semaphore writeWait = new Semaphore(0, "console writeWait");
+
+	private boolean buffered;
 
-	private Lock writeLock = new Lock();
+	/** Queued output; the byte at outHead is the one being sent. */
+	private byte[] outBuffer;
 
-	private Semaphore readWait = new Semaphore(0);
+	private int outHead = 0, outCount = 0;
 
-	private Semaphore writeWait = new Semaphore(0);
+	private boolean sending = false;
+
+	/** Writers waiting for room in outBuffer, and threads in flush(). */
+	private ThreadQueue outWaitQueue;
+
+	private static final int outBufferSize = 1024;
 
 	private class File extends OpenFile {
 		File(boolean canRead, boolean canWrite) {
@@ -128,24 +317,14 @@ public class SynchConsole {
 			if (!canRead)
 				return 0;
 
-			int i;
-			for (i = 0; i < length; i++) {
-				int value = SynchConsole.this.readByte(false);
-				if (value == -1)
-					break;
-
-				buf[offset + i] = (byte) value;
-			}
-
-			return i;
+			return SynchConsole.this.read(buf, offset, length);
 		}
 
 		public int write(byte[] buf, int offset, int length) {
 			if (!canWrite)
 				return 0;
 
-			for (int i = 0; i < length; i++)
-				SynchConsole.this.writeByte(buf[offset + i]);
+			SynchConsole.this.write(buf, offset, length);
 
 			return length;
 		}
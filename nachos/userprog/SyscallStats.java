@@ -0,0 +1,394 @@
+package nachos.userprog;
+
+import nachos.machine.*;
+
+/**
+ * Optional instrumentation of the user exception path, enabled by the
+ * <tt>nachos.conf</tt> key <tt>Kernel.syscallStats</tt>. Set it to
+ * <tt>true</tt> for a table, or to <tt>json</tt> for the same numbers as a
+ * JSON object; either is printed when the kernel terminates.
+ *
+ * <p>
+ * Every exception a user process raises is timed, in simulated ticks, from
+ * entry to the kernel until the process is ready to resume. Syscalls are
+ * recorded by syscall number, and every other cause (page faults in
+ * particular) by exception name, so page fault service time is kept apart
+ * from the syscalls. A syscall that never returns, such as <tt>exit</tt>,
+ * is counted but not timed. For the read and write family the bytes asked
+ * for and the bytes actually moved are recorded as well.
+ *
+ * <p>
+ * Latencies and sizes go into log-linear histograms in the style of
+ * HdrHistogram: values are bucketed with about 12% relative precision, so the
+ * reported percentiles are upper bounds within that error.
+ */
+public class SyscallStats {
+	/**
+	 * Prevent instantiation.
+	 */
+	private SyscallStats() {
+	}
+
+	/**
+	 * Read the configuration. Called once, while the kernel is initialized.
+	 */
+	public static void initialize() {
+		String mode = Config.getString("Kernel.syscallStats", "false");
+		json = mode.equalsIgnoreCase("json");
+		enabled = json || mode.equalsIgnoreCase("true");
+
+		checkSyscallNames();
+
+		// the extra record collects unknown syscall numbers
+		syscalls = new Record[syscallNames.length + 1];
+		exceptions = new Record[Processor.exceptionNames.length];
+	}
+
+	/**
+	 * Test if the exception path is being measured.
+	 *
+	 * @return <tt>true</tt> if statistics are being kept.
+	 */
+	public static boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Note the start of a syscall. Counted here, so that syscalls that never
+	 * return still show up.
+	 *
+	 * @param syscall the syscall number.
+	 * @param count the number of bytes requested, or -1 if the syscall does
+	 * not transfer data.
+	 */
+	public static void syscallStarted(int syscall, int count) {
+		Record record = getSyscallRecord(syscall);
+		record.count++;
+		if (count >= 0)
+			record.requested.record(count);
+	}
+
+	/**
+	 * Note the completion of a syscall.
+	 *
+	 * @param syscall the syscall number.
+	 * @param ticks the time spent in the kernel.
+	 * @param result the value returned to the process.
+	 * @param transfersData <tt>true</tt> if <i>result</i> is a byte count.
+	 */
+	public static void syscallFinished(int syscall, long ticks, int result,
+			boolean transfersData) {
+		Record record = getSyscallRecord(syscall);
+		record.latency.record(ticks);
+		if (transfersData && result > 0)
+			record.bytesTransferred += result;
+		if (result == -1)
+			record.errors++;
+	}
+
+	/**
+	 * Note the handling of an exception other than a syscall.
+	 *
+	 * @param cause the exception, one of the <tt>Processor.exceptionZZZ</tt>
+	 * constants.
+	 * @param ticks the time spent in the kernel.
+	 */
+	public static void exceptionHandled(int cause, long ticks) {
+		Record record = exceptions[cause];
+		if (record == null) {
+			record = new Record(Processor.exceptionNames[cause]);
+			exceptions[cause] = record;
+		}
+		record.count++;
+		record.latency.record(ticks);
+	}
+
+	/**
+	 * Return <tt>true</tt> if a syscall belongs to the read and write family,
+	 * whose result is the number of bytes moved.
+	 *
+	 * @param syscall the syscall number.
+	 */
+	public static boolean transfersData(int syscall) {
+		return syscall == UserProcess.syscallRead
+				|| syscall == UserProcess.syscallWrite
+				|| syscall == UserProcess.syscallReadv
+				|| syscall == UserProcess.syscallWritev
+				|| syscall == UserProcess.syscallPread
+				|| syscall == UserProcess.syscallPwrite;
+	}
+
+	/**
+	 * Return the number of bytes a syscall of the read and write family asks
+	 * for, from its arguments in the processor's registers. That is the third
+	 * argument, except for readv() and writev(), where it is the sum of the
+	 * lengths in the iovec array. Must be called before the syscall runs.
+	 *
+	 * @param process the process making the syscall.
+	 * @param syscall the syscall number.
+	 * @return the number of bytes, or -1 if the syscall does not transfer
+	 * data or its arguments are invalid.
+	 */
+	public static int requestedBytes(UserProcess process, int syscall) {
+		if (!transfersData(syscall))
+			return -1;
+
+		Processor processor = Machine.processor();
+		if (syscall == UserProcess.syscallReadv
+				|| syscall == UserProcess.syscallWritev)
+			return process.getIovecBytes(
+					processor.readRegister(Processor.regA1),
+					processor.readRegister(Processor.regA2));
+
+		return processor.readRegister(Processor.regA2);
+	}
+
+	/**
+	 * Print everything recorded, in the configured format. Does nothing if
+	 * statistics are off.
+	 */
+	public static void printReport() {
+		if (!enabled)
+			return;
+
+		if (json) {
+			printJSON();
+			return;
+		}
+
+		System.out.println("\nSyscall and exception latency (ticks):");
+		System.out.println(String.format(
+				"%-20s %8s %6s %11s %8s %8s %8s %8s %8s %11s %11s", "name",
+				"count", "errors", "total", "mean", "p50", "p90", "p99", "max",
+				"requested", "transferred"));
+
+		for (Record record : syscalls) {
+			if (record != null)
+				System.out.println(record);
+		}
+		for (Record record : exceptions) {
+			if (record != null)
+				System.out.println(record);
+		}
+	}
+
+	private static void printJSON() {
+		StringBuffer buf = new StringBuffer("{\"syscalls\": {");
+		appendJSON(buf, syscalls);
+		buf.append("}, \"exceptions\": {");
+		appendJSON(buf, exceptions);
+		buf.append("}}");
+
+		System.out.println(buf);
+	}
+
+	private static void appendJSON(StringBuffer buf, Record[] records) {
+		boolean first = true;
+		for (Record record : records) {
+			if (record == null)
+				continue;
+			if (!first)
+				buf.append(", ");
+			first = false;
+			record.appendJSON(buf);
+		}
+	}
+
+	/**
+	 * Check the name table against the syscall numbers that
+	 * <tt>UserProcess.handleSyscall()</tt> dispatches on, so that a syscall
+	 * added there without a name here is caught when the kernel starts
+	 * instead of being reported as unknown.
+	 */
+	private static void checkSyscallNames() {
+		checkSyscallName(UserProcess.syscallHalt, "halt");
+		checkSyscallName(UserProcess.syscallExit, "exit");
+		checkSyscallName(UserProcess.syscallExec, "exec");
+		checkSyscallName(UserProcess.syscallJoin, "join");
+		checkSyscallName(UserProcess.syscallCreate, "creat");
+		checkSyscallName(UserProcess.syscallOpen, "open");
+		checkSyscallName(UserProcess.syscallRead, "read");
+		checkSyscallName(UserProcess.syscallWrite, "write");
+		checkSyscallName(UserProcess.syscallClose, "close");
+		checkSyscallName(UserProcess.syscallUnlink, "unlink");
+		checkSyscallName(UserProcess.syscallReadv, "readv");
+		checkSyscallName(UserProcess.syscallWritev, "writev");
+		checkSyscallName(UserProcess.syscallPread, "pread");
+		checkSyscallName(UserProcess.syscallPwrite, "pwrite");
+		checkSyscallName(UserProcess.syscallDup, "dup");
+		checkSyscallName(UserProcess.syscallDup2, "dup2");
+		checkSyscallName(UserProcess.syscallPipe, "pipe");
+		checkSyscallName(UserProcess.syscallSbrk, "sbrk");
+
+		// sbrk is the highest syscall number
+		Lib.assertTrue(syscallNames.length == UserProcess.syscallSbrk + 1,
+				"syscall name table does not end at the last syscall");
+	}
+
+	private static void checkSyscallName(int syscall, String name) {
+		Lib.assertTrue(syscall < syscallNames.length
+				&& syscallNames[syscall].equals(name), "syscall " + syscall
+				+ " is not named " + name);
+	}
+
+	private static Record getSyscallRecord(int syscall) {
+		int index = (syscall >= 0 && syscall < syscallNames.length) ? syscall
+				: syscallNames.length;
+		if (syscalls[index] == null) {
+			String name = (syscall == index) ? syscallNames[index] : "unknown";
+			syscalls[index] = new Record(name);
+		}
+		return syscalls[index];
+	}
+
+	/**
+	 * The counters for one syscall or exception.
+	 */
+	private static class Record {
+		Record(String name) {
+			this.name = name;
+		}
+
+		public String toString() {
+			String requestedTotal = (requested.getCount() == 0) ? "-" : ""
+					+ requested.getTotal();
+			String transferred = (requested.getCount() == 0) ? "-" : ""
+					+ bytesTransferred;
+
+			return String.format(
+					"%-20s %8d %6d %11d %8d %8d %8d %8d %8d %11s %11s", name,
+					count, errors, latency.getTotal(), latency.getMean(),
+					latency.getPercentile(50), latency.getPercentile(90),
+					latency.getPercentile(99), latency.getMax(),
+					requestedTotal, transferred);
+		}
+
+		void appendJSON(StringBuffer buf) {
+			buf.append("\"" + name + "\": {\"count\": " + count
+					+ ", \"errors\": " + errors + ", \"latency\": ");
+			latency.appendJSON(buf);
+			if (requested.getCount() > 0) {
+				buf.append(", \"requested\": ");
+				requested.appendJSON(buf);
+				buf.append(", \"bytesTransferred\": " + bytesTransferred);
+			}
+			buf.append("}");
+		}
+
+		String name;
+
+		int count = 0, errors = 0;
+
+		long bytesTransferred = 0;
+
+		Histogram latency = new Histogram();
+
+		/** Sizes of the transfers asked for. */
+		Histogram requested = new Histogram();
+	}
+
+	/**
+	 * A histogram of non-negative values with log-linear buckets. Values
+	 * below <tt>2^subBucketBits</tt> get a bucket each; above that, every
+	 * power of two is split into <tt>2^subBucketBits</tt> equal buckets.
+	 */
+	static class Histogram {
+		void record(long value) {
+			value = Math.max(value, 0);
+
+			counts[bucketOf(value)]++;
+			count++;
+			total += value;
+			max = Math.max(max, value);
+		}
+
+		long getCount() {
+			return count;
+		}
+
+		long getTotal() {
+			return total;
+		}
+
+		long getMax() {
+			return max;
+		}
+
+		long getMean() {
+			return (count == 0) ? 0 : total / count;
+		}
+
+		/**
+		 * Return an upper bound on the given percentile, never more than the
+		 * largest value recorded.
+		 */
+		long getPercentile(double percentile) {
+			if (count == 0)
+				return 0;
+
+			long rank = (long) Math.ceil(count * percentile / 100);
+			long seen = 0;
+			for (int b = 0; b < counts.length; b++) {
+				seen += counts[b];
+				if (seen >= rank)
+					return Math.min(highestValueIn(b), max);
+			}
+			return max;
+		}
+
+		void appendJSON(StringBuffer buf) {
+			buf.append("{\"count\": " + count + ", \"total\": " + total
+					+ ", \"max\": " + max + ", \"p50\": " + getPercentile(50)
+					+ ", \"p90\": " + getPercentile(90) + ", \"p99\": "
+					+ getPercentile(99) + ", \"buckets\": [");
+
+			boolean first = true;
+			for (int b = 0; b < counts.length; b++) {
+				if (counts[b] == 0)
+					continue;
+				if (!first)
+					buf.append(", ");
+				first = false;
+				buf.append("[" + highestValueIn(b) + ", " + counts[b] + "]");
+			}
+			buf.append("]}");
+		}
+
+		private static int bucketOf(long value) {
+			if (value < subBuckets)
+				return (int) value;
+
+			int exponent = 63 - Long.numberOfLeadingZeros(value);
+			int shift = exponent - subBucketBits;
+			int sub = (int) (value >> shift) - subBuckets;
+			return subBuckets + shift * subBuckets + sub;
+		}
+
+		private static long highestValueIn(int bucket) {
+			if (bucket < subBuckets)
+				return bucket;
+
+			int shift = (bucket - subBuckets) / subBuckets;
+			long sub = (bucket - subBuckets) % subBuckets + subBuckets;
+			return ((sub + 1) << shift) - 1;
+		}
+
+		private long[] counts = new long[subBuckets * (64 - subBucketBits)];
+
+		private long count = 0, total = 0, max = 0;
+
+		private static final int subBucketBits = 3;
+
+		private static final int subBuckets = 1 << subBucketBits;
+	}
+
+	private static boolean enabled = false, json = false;
+
+	private static Record[] syscalls, exceptions;
+
+	/** Indexed by syscall number; see <tt>UserProcess.handleSyscall()</tt>. */
+	private static final String[] syscallNames = { "halt", "exit", "exec",
+			"join", "creat", "open", "read", "write", "close", "unlink", "mmap",
+			"connect", "accept", "readv", "writev", "pread", "pwrite", "fork",
+			"dup", "dup2", "pipe", "sbrk" };
+}
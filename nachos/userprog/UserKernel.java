@@ -2,7 +2,6 @@ package nachos.userprog;
 
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.LinkedList;
 import java.util.Map;
 
 import nachos.machine.*;
@@ -30,9 +29,14 @@ public class UserKernel extends ThreadedKernel {
 		PIDCounter = 0;
 		existingProcessesNum = 0;
 		PIDUserProcessMap = new HashMap<>();
-		initFreePPages();
+		openFileRefs = new HashMap<>();
+		SyscallStats.initialize();
+		fileTableSize = Config.getInteger("UserKernel.fileTableSize", 16);
+		coffCache = new CoffCache(Config.getInteger("UserKernel.coffCacheSize", 8));
+		frameAllocator = new FrameAllocator(Machine.processor().getNumPhysPages());
 
-		console = new SynchConsole(Machine.console());
+		console = new SynchConsole(Machine.console(),
+				Config.getBoolean("UserKernel.bufferedConsole", false));
 
 		Machine.processor().setExceptionHandler(new Runnable() {
 			public void run() {
@@ -42,70 +46,44 @@ public class UserKernel extends ThreadedKernel {
 	}
 
 	private static void initLock() {
-		freePPagelock = new Lock();
-		PIDLock = new Lock();
-		PIDMapLock = new Lock();
-		existingProcessesNumLock = new Lock();
-		initProcessLock = new Lock();
+		openFileRefLock = new Lock("openFileRefLock");
+		PIDLock = new Lock("PIDLock");
+		PIDMapLock = new ReadWriteLock();
+		existingProcessesNumLock = new Lock("existingProcessesNumLock");
+		initProcessLock = new Lock("initProcessLock");
 	}
 
 	public static void addPIDUserProcessMap(int PID, UserProcess userProcess) {
-		PIDMapLock.acquire();
+		PIDMapLock.acquireWrite();
 
 		PIDUserProcessMap.put(PID, userProcess);
 
-		PIDMapLock.release();
+		PIDMapLock.releaseWrite();
 	}
 
 	public static void removePIDUserProcessMap(int PID) {
-		PIDMapLock.acquire();
+		PIDMapLock.acquireWrite();
 		System.out.println("remove....");
 		PIDUserProcessMap.remove(PID);
 
-		PIDMapLock.release();
+		PIDMapLock.releaseWrite();
 	}
 
 	public static UserProcess getUserProcess(int PID) {
-		PIDMapLock.acquire();
+		PIDMapLock.acquireRead();
 
 		UserProcess userProcess = PIDUserProcessMap.get(PID);
 
-		PIDMapLock.release();
+		PIDMapLock.releaseRead();
 		return userProcess;
 	}
 
-	private void initFreePPages() {
-		freePPages = new LinkedList<>() {
-			{
-				int numPhysPages = Machine.processor().getNumPhysPages();
-				for (int i = 0; i < numPhysPages; i++) {
-					offer(i);
-				}
-			}
-		};
-	}
-
 	public static int getFreePPage() {
-		int page = -1;
-		freePPagelock.acquire();
-
-		if (!freePPages.isEmpty()) {
-			page = freePPages.poll();
-		}
-
-		freePPagelock.release();
-
-		return page;
+		return frameAllocator.allocate();
 	}
 
 	public static void addFreePPage(int page) {
-		freePPagelock.acquire();
-
-		freePPages.offer(page);
-
-		freePPagelock.release();
-
-		return;
+		frameAllocator.free(page);
 	}
 
 	public static int getPID() {
@@ -118,6 +96,42 @@ public class UserKernel extends ThreadedKernel {
 		return PID;
 	}
 
+	/**
+	 * Note that one more file descriptor, possibly in another process, refers
+	 * to an open file.
+	 * 
+	 * @param file the open file being shared.
+	 */
+	public static void retainOpenFile(OpenFile file) {
+		openFileRefLock.acquire();
+
+		Integer refs = openFileRefs.get(file);
+		openFileRefs.put(file, (refs == null ? 1 : refs) + 1);
+
+		openFileRefLock.release();
+	}
+
+	/**
+	 * Drop a file descriptor's reference to an open file, closing the file
+	 * when no descriptor refers to it any more.
+	 * 
+	 * @param file the open file whose descriptor is being closed.
+	 */
+	public static void releaseOpenFile(OpenFile file) {
+		openFileRefLock.acquire();
+
+		// files that were never shared are not in the map
+		Integer refs = openFileRefs.get(file);
+		if (refs == null || refs == 1) {
+			openFileRefs.remove(file);
+			file.close();
+		} else {
+			openFileRefs.put(file, refs - 1);
+		}
+
+		openFileRefLock.release();
+	}
+
 	public static int getExistingProcessesNum() {
 		// existingProcessesNumLock.acquire();
 
@@ -191,7 +205,33 @@ public class UserKernel extends ThreadedKernel {
 
 		UserProcess process = ((UThread) KThread.currentThread()).process;
 		int cause = Machine.processor().readRegister(Processor.regCause);
+
+		if (!SyscallStats.isEnabled()) {
+			process.handleException(cause);
+			return;
+		}
+
+		// time the whole trip through the kernel; syscall arguments are read
+		// now, since the handler overwrites v0 with the result
+		Processor processor = Machine.processor();
+		int syscall = processor.readRegister(Processor.regV0);
+		boolean transfersData = SyscallStats.transfersData(syscall);
+		long start = Machine.timer().getTime();
+
+		if (cause == Processor.exceptionSyscall) {
+			SyscallStats.syscallStarted(syscall,
+					SyscallStats.requestedBytes(process, syscall));
+		}
+
 		process.handleException(cause);
+
+		long ticks = Machine.timer().getTime() - start;
+		if (cause == Processor.exceptionSyscall) {
+			SyscallStats.syscallFinished(syscall, ticks,
+					processor.readRegister(Processor.regV0), transfersData);
+		} else {
+			SyscallStats.exceptionHandled(cause, ticks);
+		}
 	}
 
 	/**
@@ -229,23 +269,38 @@ public class UserKernel extends ThreadedKernel {
 	 * Terminate this kernel. Never returns.
 	 */
 	public void terminate() {
+		// let queued console output reach the screen before the machine halts
+		console.flush();
+		if (Lib.test('a'))
+			coffCache.printStats();
+		SyscallStats.printReport();
 		super.terminate();
 	}
 
 	/** Globally accessible reference to the synchronized console. */
 	public static SynchConsole console;
 
+	/** The number of file descriptors each process has. */
+	public static int fileTableSize;
+
+	/** Parsed executables, shared by <tt>exec</tt> and <tt>fork</tt>. */
+	public static CoffCache coffCache;
+
+	/** Reference counts of open files held by more than one descriptor. */
+	private static Map<OpenFile, Integer> openFileRefs;
+
+	private static Lock openFileRefLock;
+
 	// dummy variables to make javac smarter
 	private static Coff dummy1 = null;
 
-	// a linkedlist to store free physical pages
-	private static LinkedList<Integer> freePPages;
-
-	private static Lock freePPagelock;
+	/** The free physical pages. */
+	public static FrameAllocator frameAllocator;
 
 	public static Lock PIDLock;
 
-	private static Lock PIDMapLock;
+	// lookups far outnumber exec/exit, so readers share the map
+	private static ReadWriteLock PIDMapLock;
 
 	public static Lock existingProcessesNumLock;
 
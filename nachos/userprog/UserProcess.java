@@ -5,14 +5,8 @@ import nachos.threads.*;
 import nachos.userprog.*;
 import nachos.vm.*;
 
-import java.io.EOFException;
 import java.util.Arrays;
-import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
-import java.util.LinkedList;
-import java.util.Map;
-import java.util.Queue;
 import java.util.Set;
 
 /**
@@ -50,14 +44,42 @@ public class UserProcess {
 	}
 
 	private void initFD() {
-		fdMap = new HashMap<Integer, OpenFile>() {
-			{
-				put(0, UserKernel.console.openForReading());
-				put(1, UserKernel.console.openForWriting());
+		fdTable = new OpenFile[UserKernel.fileTableSize];
+		fdBitmap = new int[(fdTable.length + 31) / 32];
+		installFD(0, UserKernel.console.openForReading());
+		installFD(1, UserKernel.console.openForWriting());
+	}
+
+	/**
+	 * Return the open file a file descriptor refers to.
+	 * 
+	 * @param fileDescriptor the file descriptor.
+	 * @return the open file, or <tt>null</tt> if the descriptor is out of
+	 *         range or not in use.
+	 */
+	protected OpenFile getFile(int fileDescriptor) {
+		if (fileDescriptor < 0 || fileDescriptor >= fdTable.length) {
+			return null;
+		}
+		return fdTable[fileDescriptor];
+	}
+
+	/**
+	 * Return the lowest unused file descriptor, or -1 if the table is full.
+	 */
+	private int lowestFreeFD() {
+		for (int w = 0; w < fdBitmap.length; w++) {
+			if (fdBitmap[w] != -1) {
+				int fd = w * 32 + Integer.numberOfTrailingZeros(~fdBitmap[w]);
+				return (fd < fdTable.length) ? fd : -1;
 			}
-		};
-		nextFD = 2;
-		freeFDs = new LinkedList<Integer>();
+		}
+		return -1;
+	}
+
+	private void installFD(int fileDescriptor, OpenFile file) {
+		fdTable[fileDescriptor] = file;
+		fdBitmap[fileDescriptor / 32] |= 1 << (fileDescriptor % 32);
 	}
 
 	/**
@@ -181,7 +203,7 @@ public class UserProcess {
 
 		byte[] memory = Machine.processor().getMemory();
 
-		if (vaddr < 0 || vaddr >= numPages * pageSize || length == 0) {
+		if (vaddr < 0 || vaddr >= pageTable.length * pageSize || length == 0) {
 			return 0;
 		}
 		int endAddr = vaddr + length;
@@ -189,7 +211,7 @@ public class UserProcess {
 				endVPage = Processor.pageFromAddress(endAddr - 1),
 				totalAmount = 0;
 		for (int vpn = startVPage; vpn <= endVPage; vpn++) {
-			if (vpn >= numPages || (isWrite && pageTable[vpn].readOnly) || !pageTable[vpn].valid) {
+			if (vpn >= pageTable.length || (isWrite && pageTable[vpn].readOnly) || !pageTable[vpn].valid) {
 				return totalAmount;
 			}
 			int pPageOffset = Processor.offsetFromAddress(vaddr),
@@ -258,19 +280,14 @@ public class UserProcess {
 	private boolean load(String name, String[] args) {
 		Lib.debug(dbgProcess, "UserProcess.load(\"" + name + "\")");
 
-		OpenFile executable = ThreadedKernel.fileSystem.open(name, false);
+		// a recently run executable is not reopened or reparsed
+		CoffCache.CachedCoff executable = UserKernel.coffCache.open(name);
 		if (executable == null) {
-			Lib.debug(dbgProcess, "\topen failed");
 			return false;
 		}
 
-		try {
-			coff = new Coff(executable);
-		} catch (EOFException e) {
-			executable.close();
-			Lib.debug(dbgProcess, "\tcoff load failed");
-			return false;
-		}
+		coff = executable;
+		executableName = name;
 
 		// make sure the sections are contiguous and start at page 0
 		numPages = 0;
@@ -308,6 +325,9 @@ public class UserProcess {
 		// and finally reserve 1 page for arguments
 		numPages++;
 
+		// the heap starts out empty, right above the arguments
+		programBreak = numPages * pageSize;
+
 		if (!loadSections())
 			return false;
 
@@ -332,14 +352,14 @@ public class UserProcess {
 	}
 
 	private boolean initPageTable() {
+		// all the frames at once, contiguous if possible
+		int[] ppns = UserKernel.frameAllocator.allocate(numPages);
+		if (ppns == null) {
+			return false;
+		}
 		pageTable = new TranslationEntry[numPages];
-		// System.out.println("numPages: " + numPages);
 		for (int i = 0; i < numPages; i++) {
-			int pPageNum = UserKernel.getFreePPage();
-			if (pPageNum == -1) {
-				return false;
-			}
-			pageTable[i] = new TranslationEntry(i, pPageNum, true, false, false, false);
+			pageTable[i] = new TranslationEntry(i, ppns[i], true, false, false, false);
 		}
 		return true;
 	}
@@ -365,17 +385,19 @@ public class UserProcess {
 
 		// load sections
 		for (int s = 0; s < coff.getNumSections(); s++) {
-			CoffSection section = coff.getSection(s);
+			CoffCache.Section section = coff.getSection(s);
 
 			Lib.debug(dbgProcess, "\tinitializing " + section.getName()
 					+ " section (" + section.getLength() + " pages)");
 
+			// read the whole section at once and scatter it into its frames
+			int[] ppns = new int[section.getLength()];
 			for (int i = 0; i < section.getLength(); i++) {
 				int vpn = section.getFirstVPN() + i;
-				int ppn = pageTable[vpn].ppn;
+				ppns[i] = pageTable[vpn].ppn;
 				pageTable[vpn].readOnly = section.isReadOnly();
-				section.loadPage(i, ppn);
 			}
+			section.loadPages(0, ppns.length, ppns);
 		}
 
 		return true;
@@ -386,20 +408,26 @@ public class UserProcess {
 	 */
 	protected void unloadSections() {
 		Lib.debug(dbgProcess, "unloadSections in UserProcessor");
-		int pageTableSize = pageTable.length;
-		for (int i = 0; i < pageTableSize; i++) {
-			UserKernel.addFreePPage(pageTable[i].ppn);
-			// if (pageTable[i] != null) {
-			// UserKernel.addFreePPage(pageTable[i].ppn);
-			// pageTable[i] = null;
-			// }
-		}
-		// close all opened files
-		for (Iterator<Map.Entry<Integer, OpenFile>> it = fdMap.entrySet().iterator(); it.hasNext();) {
-			Map.Entry<Integer, OpenFile> entry = it.next();
-			handleClose(entry.getKey());
+		// give every frame back in one batch
+		int[] ppns = new int[pageTable.length];
+		for (int i = 0; i < pageTable.length; i++) {
+			ppns[i] = pageTable[i].ppn;
 		}
+		UserKernel.frameAllocator.free(ppns, ppns.length);
+		closeAllFiles();
+	}
 
+	/**
+	 * Close every file descriptor this process has open. Called when the
+	 * process's resources are released, so that pipe ends and files shared
+	 * through dup() or fork() lose this process's reference.
+	 */
+	protected void closeAllFiles() {
+		for (int fd = 0; fd < fdTable.length; fd++) {
+			if (fdTable[fd] != null) {
+				handleClose(fd);
+			}
+		}
 	}
 
 	/**
@@ -412,8 +440,16 @@ public class UserProcess {
 	public void initRegisters() {
 		Processor processor = Machine.processor();
 
+		// a forked process picks up where its parent left off
+		if (forkedRegisters != null) {
+			for (int i = 0; i < Processor.numUserRegisters; i++)
+				processor.writeRegister(i, forkedRegisters[i]);
+			forkedRegisters = null;
+			return;
+		}
+
 		// by default, everything's 0
-		for (int i = 0; i < processor.numUserRegisters; i++)
+		for (int i = 0; i < Processor.numUserRegisters; i++)
 			processor.writeRegister(i, 0);
 
 		// initialize PC and SP according
@@ -432,7 +468,8 @@ public class UserProcess {
 		if (PID != 0) {
 			return -1;
 		}
-		Machine.halt();
+		// go through the kernel so it can report before the machine halts
+		Kernel.kernel.terminate();
 
 		Lib.assertNotReached("Machine.halt() did not halt machine!");
 		return 0;
@@ -498,77 +535,454 @@ public class UserProcess {
 	// For read(), the address(bufferAddr) is pointing to where we put the data,
 	// after we read the data from the file.
 	private int handleRead(int fileDescriptor, int bufferAddr, int count) {
-		if (fileDescriptor < 0 || !fdMap.containsKey(fileDescriptor) || count < 0) {
+		OpenFile file = getFile(fileDescriptor);
+		if (file == null || count < 0) {
 			return -1;
 		}
-		int totalReadBytes = 0;
-		while (count > 0) {
-			byte[] data = new byte[pageSize];
-			int currCount = Math.min(count, pageSize);
-			int numReadBytes = fdMap.get(fileDescriptor).read(data, 0, currCount);
-			if (numReadBytes == 0) {
-				break;
-			}
+		return transferFile(file, -1, bufferAddr, count, true);
+	}
 
-			if (numReadBytes == -1) {
+	// For write(), the address(bufferAddr) is pointing to where we get the data,
+	// before we write the data to the file.
+	private int handleWrite(int fileDescriptor, int bufferAddr, int count) {
+		OpenFile file = getFile(fileDescriptor);
+		if (file == null || count < 0) {
+			return -1;
+		}
+		return transferFile(file, -1, bufferAddr, count, false);
+	}
+
+	// pread()/pwrite() transfer at an explicit file offset and leave the file
+	// position alone, so they only work on files that can seek.
+	private int handlePread(int fileDescriptor, int bufferAddr, int count, int offset) {
+		OpenFile file = getFile(fileDescriptor);
+		if (file == null || count < 0 || offset < 0) {
+			return -1;
+		}
+		return transferFile(file, offset, bufferAddr, count, true);
+	}
+
+	private int handlePwrite(int fileDescriptor, int bufferAddr, int count, int offset) {
+		OpenFile file = getFile(fileDescriptor);
+		if (file == null || count < 0 || offset < 0) {
+			return -1;
+		}
+		return transferFile(file, offset, bufferAddr, count, false);
+	}
+
+	// readv()/writev() walk an array of struct iovec { void *base; int len; }
+	// in one kernel crossing. A short read stops at the buffer it ended in.
+	private int handleReadv(int fileDescriptor, int iovAddr, int iovCount) {
+		return vectorHelper(fileDescriptor, iovAddr, iovCount, true);
+	}
+
+	private int handleWritev(int fileDescriptor, int iovAddr, int iovCount) {
+		return vectorHelper(fileDescriptor, iovAddr, iovCount, false);
+	}
+
+	/**
+	 * Return the total length of the buffers in an array of struct iovec, as
+	 * passed to readv() or writev().
+	 * 
+	 * @param iovAddr  the address of the array.
+	 * @param iovCount the number of entries.
+	 * @return the sum of the lengths, or -1 if the array is invalid.
+	 */
+	int getIovecBytes(int iovAddr, int iovCount) {
+		if (iovCount < 0 || iovCount > maxIovecs) {
+			return -1;
+		}
+		byte[] iov = new byte[iovCount * iovecSize];
+		if (readVirtualMemory(iovAddr, iov, 0, iov.length) < iov.length) {
+			return -1;
+		}
+
+		long total = 0;
+		for (int i = 0; i < iovCount; i++) {
+			int length = Lib.bytesToInt(iov, i * iovecSize + pointerSize);
+			if (length < 0) {
 				return -1;
 			}
+			total += length;
+		}
+		return (int) Math.min(total, Integer.MAX_VALUE);
+	}
 
-			int actualWriteToVM = writeVirtualMemory(bufferAddr, data, 0, numReadBytes);
+	private int vectorHelper(int fileDescriptor, int iovAddr, int iovCount, boolean toMemory) {
+		OpenFile file = getFile(fileDescriptor);
+		if (file == null || iovCount < 0 || iovCount > maxIovecs) {
+			return -1;
+		}
+		byte[] iov = new byte[iovCount * iovecSize];
+		int actualReadFromVM = readVirtualMemory(iovAddr, iov, 0, iov.length);
+		if (actualReadFromVM < iov.length) {
+			return -1;
+		}
 
-			// On error, -1 is returned, and the new file position is undefined. This can
-			// happen if part of the buffer is read-only or invalid.
-			if (actualWriteToVM < numReadBytes) {
+		int totalAmount = 0;
+		for (int i = 0; i < iovCount; i++) {
+			int base = Lib.bytesToInt(iov, i * iovecSize);
+			int length = Lib.bytesToInt(iov, i * iovecSize + pointerSize);
+			if (length < 0) {
 				return -1;
 			}
-			totalReadBytes += actualWriteToVM;
-			bufferAddr += actualWriteToVM;
-			count -= pageSize;
+			int amount = transferFile(file, -1, base, length, toMemory);
+			if (amount == -1) {
+				return (totalAmount > 0) ? totalAmount : -1;
+			}
+			totalAmount += amount;
+			if (amount < length) {
+				break;
+			}
 		}
-		return totalReadBytes;
+		return totalAmount;
 	}
 
-	// For write(), the address(bufferAddr) is pointing to where we get the data,
-	// before we write the data to the file.
-	private int handleWrite(int fileDescriptor, int bufferAddr, int count) {
-		if (fileDescriptor < 0 || !fdMap.containsKey(fileDescriptor) || count < 0) {
+	/**
+	 * Move data between an open file and this process's virtual memory without
+	 * staging it in a kernel buffer. The pages behind the buffer are pinned a
+	 * run at a time, and each run of physically contiguous pages is handed to
+	 * the file as one slice of main memory. A run only grows over pages that
+	 * are already resident, so nothing is faulted in just to see where it
+	 * lies, and it is no longer than the pins reserved for it with
+	 * <tt>reservePins()</tt>.
+	 * 
+	 * <p>
+	 * The console, pipes and connections may wait for the other side, and
+	 * nothing may stay pinned while they do, so they go through a kernel
+	 * buffer instead; see <tt>transferStream()</tt>.
+	 * 
+	 * <p>
+	 * A short read or a short write ends the transfer. An error also ends it,
+	 * and the bytes moved before the error are returned; -1 is returned only
+	 * if nothing was moved. Errors include part of the buffer being invalid,
+	 * or read-only when reading into it, or the file failing to write.
+	 * 
+	 * @param file     the file to read or write.
+	 * @param pos      the file offset to start at, or -1 to use and advance
+	 *                 the file's current position.
+	 * @param vaddr    the first byte of the user buffer.
+	 * @param length   the number of bytes to transfer.
+	 * @param toMemory <tt>true</tt> to read from the file into memory,
+	 *                 <tt>false</tt> to write memory to the file.
+	 * @return the number of bytes transferred, or -1 on error.
+	 */
+	protected int transferFile(OpenFile file, int pos, int vaddr, int length, boolean toMemory) {
+		if (file == null || vaddr < 0) {
 			return -1;
 		}
-		int totalWrittenBytes = 0;
-		while (count > 0) {
-			byte[] data = new byte[pageSize];
-			int currCount = Math.min(count, pageSize);
-			int actualReadFromVM = readVirtualMemory(bufferAddr, data, 0, currCount);
+		if (file.getFileSystem() == null) {
+			return transferStream(file, pos, vaddr, length, toMemory);
+		}
+		byte[] memory = Machine.processor().getMemory();
+		int totalAmount = 0;
+		while (length > 0) {
+			int vpn = Processor.pageFromAddress(vaddr);
+			long numPages = ((long) Processor.offsetFromAddress(vaddr) + length + pageSize - 1) / pageSize;
+			int maxPinned = reservePins((int) Math.min(numPages, getMaxPinnedRun()));
+			int firstPPN = pinPage(vpn, toMemory);
+			if (firstPPN == -1) {
+				releasePins(maxPinned);
+				return (totalAmount > 0) ? totalAmount : -1;
+			}
 
-			// On error, -1 is returned, and the new file position is undefined. This can
-			// happen if part of the buffer is invalid.
-			if (actualReadFromVM < currCount) {
-				return -1;
+			// grow the run while the next page is resident in the next frame
+			int numPinned = 1;
+			int runLength = Math.min(length, pageSize - Processor.offsetFromAddress(vaddr));
+			while (runLength < length && numPinned < maxPinned) {
+				int ppn = pinResidentPage(vpn + numPinned, toMemory);
+				if (ppn != firstPPN + numPinned) {
+					if (ppn != -1) {
+						unpinPage(vpn + numPinned);
+					}
+					break;
+				}
+				runLength += Math.min(length - runLength, pageSize);
+				++numPinned;
 			}
-			int numWrittenBytes = fdMap.get(fileDescriptor).write(data, 0, currCount);
-			if (numWrittenBytes == -1) {
-				return -1;
+
+			int paddr = firstPPN * pageSize + Processor.offsetFromAddress(vaddr);
+			int amount = fileIO(file, pos, memory, paddr, runLength, toMemory);
+
+			for (int i = 0; i < numPinned; i++) {
+				unpinPage(vpn + i);
 			}
-			if (numWrittenBytes < currCount) {
-				return -1;
+			releasePins(maxPinned);
+
+			// bytes already moved are reported even if this run failed
+			if (amount == -1 || (!toMemory && amount == 0)) {
+				return (totalAmount > 0) ? totalAmount : -1;
+			}
+			totalAmount += amount;
+			if (amount < runLength) {
+				break;
+			}
+			vaddr += amount;
+			length -= amount;
+			if (pos >= 0) {
+				pos += amount;
 			}
-			totalWrittenBytes += numWrittenBytes;
-			bufferAddr += actualReadFromVM;
-			count -= pageSize;
 		}
-		return totalWrittenBytes;
+		return totalAmount;
+	}
+
+	// Transfer through a kernel buffer, a page at a time, for files that can
+	// block. The file is read or written with nothing pinned, and pages are
+	// only pinned by readVirtualMemory()/writeVirtualMemory() for the copy.
+	private int transferStream(OpenFile file, int pos, int vaddr, int length, boolean toMemory) {
+		byte[] buffer = new byte[Math.min(length, pageSize)];
+		int totalAmount = 0;
+		while (length > 0) {
+			// a pipe read returns what has arrived instead of waiting for more
+			if (totalAmount > 0 && toMemory && file instanceof Pipe.End
+					&& !((Pipe.End) file).isReadReady()) {
+				break;
+			}
+
+			int chunk = Math.min(length, buffer.length);
+			int amount;
+			if (toMemory) {
+				amount = fileIO(file, pos, buffer, 0, chunk, true);
+				if (amount > 0) {
+					int copied = writeVirtualMemory(vaddr, buffer, 0, amount);
+					if (copied < amount) {
+						totalAmount += copied;
+						return (totalAmount > 0) ? totalAmount : -1;
+					}
+				}
+			} else {
+				// write what can be read from the buffer, then stop
+				chunk = readVirtualMemory(vaddr, buffer, 0, chunk);
+				amount = (chunk > 0) ? fileIO(file, pos, buffer, 0, chunk, false) : -1;
+			}
+
+			if (amount == -1 || (!toMemory && amount == 0)) {
+				return (totalAmount > 0) ? totalAmount : -1;
+			}
+			totalAmount += amount;
+			if (amount < chunk) {
+				break;
+			}
+			vaddr += amount;
+			length -= amount;
+			if (pos >= 0) {
+				pos += amount;
+			}
+		}
+		return totalAmount;
+	}
+
+	private int fileIO(OpenFile file, int pos, byte[] buf, int offset, int length, boolean toMemory) {
+		if (pos < 0) {
+			return toMemory ? file.read(buf, offset, length) : file.write(buf, offset, length);
+		}
+		return toMemory ? file.read(pos, buf, offset, length) : file.write(pos, buf, offset, length);
+	}
+
+	/**
+	 * Make a virtual page resident and keep it in its frame until
+	 * <tt>unpinPage()</tt> is called, marking it used (and dirty if it is
+	 * about to be written).
+	 * 
+	 * @param vpn      the virtual page to pin.
+	 * @param forWrite <tt>true</tt> if the kernel will write into the page.
+	 * @return the physical page number, or -1 if the page is not valid or is
+	 *         read-only and <tt>forWrite</tt> is set.
+	 */
+	protected int pinPage(int vpn, boolean forWrite) {
+		if (vpn < 0 || vpn >= pageTable.length || !pageTable[vpn].valid
+				|| (forWrite && pageTable[vpn].readOnly)) {
+			return -1;
+		}
+		pageTable[vpn].used = true;
+		if (forWrite) {
+			pageTable[vpn].dirty = true;
+		}
+		return pageTable[vpn].ppn;
+	}
+
+	/**
+	 * Release a page pinned by <tt>pinPage()</tt>. Pages never move without
+	 * virtual memory, so there is nothing to do here.
+	 * 
+	 * @param vpn the virtual page to unpin.
+	 */
+	protected void unpinPage(int vpn) {
+	}
+
+	/**
+	 * Pin a virtual page like <tt>pinPage()</tt>, but only if it is already
+	 * resident; a page that is not is left alone rather than faulted in.
+	 * Without virtual memory every valid page is resident.
+	 * 
+	 * @param vpn      the virtual page to pin.
+	 * @param forWrite <tt>true</tt> if the kernel will write into the page.
+	 * @return the physical page number, or -1 if the page is not resident,
+	 *         not valid, or read-only and <tt>forWrite</tt> is set.
+	 */
+	protected int pinResidentPage(int vpn, boolean forWrite) {
+		return pinPage(vpn, forWrite);
+	}
+
+	/**
+	 * Return the most pages one file transfer may have pinned at once.
+	 * Without virtual memory pinning holds nothing back, so there is no
+	 * limit.
+	 * 
+	 * @return the largest run of pages to pin.
+	 */
+	protected int getMaxPinnedRun() {
+		return Integer.MAX_VALUE;
+	}
+
+	/**
+	 * Reserve the right to pin up to <i>count</i> pages, waiting if no pin is
+	 * free. A transfer reserves its whole run before pinning any of it, so
+	 * that pins held across file system I/O can never take every frame.
+	 * Without virtual memory every reservation is granted in full.
+	 * 
+	 * @param count the number of pins wanted, at least 1.
+	 * @return the number of pins reserved, between 1 and <i>count</i>.
+	 */
+	protected int reservePins(int count) {
+		return count;
+	}
+
+	/**
+	 * Give back pins reserved with <tt>reservePins()</tt>, after unpinning
+	 * the pages pinned under them.
+	 * 
+	 * @param count the number of pins reserved.
+	 */
+	protected void releasePins(int count) {
 	}
 
 	protected int handleClose(int fileDescriptor) {
-		if (fileDescriptor < 0 || !fdMap.containsKey(fileDescriptor) || fdMap.get(fileDescriptor) == null) {
+		OpenFile file = getFile(fileDescriptor);
+		if (file == null) {
+			return -1;
+		}
+		fdTable[fileDescriptor] = null;
+		fdBitmap[fileDescriptor / 32] &= ~(1 << (fileDescriptor % 32));
+		UserKernel.releaseOpenFile(file);
+		return 0;
+	}
+
+	// sbrk() moves the end of the heap, which starts right above the
+	// arguments, by increment bytes and returns the old end. New heap
+	// memory reads as zero.
+	private int handleSbrk(int increment) {
+		long newBreak = (long) programBreak + increment;
+		if (newBreak < numPages * pageSize || newBreak > Integer.MAX_VALUE) {
+			return -1;
+		}
+		if (!resizeHeap(Lib.divRoundUp((int) newBreak, pageSize))) {
+			return -1;
+		}
+		int oldBreak = programBreak;
+		programBreak = (int) newBreak;
+		return oldBreak;
+	}
+
+	/**
+	 * Return the page just above the heap.
+	 * 
+	 * @return the first virtual page not in the heap.
+	 */
+	protected int getHeapEndVPN() {
+		return Lib.divRoundUp(programBreak, pageSize);
+	}
+
+	/**
+	 * Grow or shrink the heap so that it ends just below <i>newEndVPN</i>.
+	 * Without virtual memory, new heap pages get zeroed frames right away.
+	 * 
+	 * @param newEndVPN the first virtual page above the new heap.
+	 * @return <tt>true</tt> if the heap could be resized.
+	 */
+	protected boolean resizeHeap(int newEndVPN) {
+		int oldEndVPN = pageTable.length;
+		if (newEndVPN > oldEndVPN) {
+			int[] ppns = UserKernel.frameAllocator.allocate(newEndVPN - oldEndVPN);
+			if (ppns == null) {
+				return false;
+			}
+			byte[] memory = Machine.processor().getMemory();
+			pageTable = Arrays.copyOf(pageTable, newEndVPN);
+			for (int i = 0; i < ppns.length; i++) {
+				Arrays.fill(memory, ppns[i] * pageSize, (ppns[i] + 1) * pageSize, (byte) 0);
+				pageTable[oldEndVPN + i] = new TranslationEntry(oldEndVPN + i, ppns[i], true, false, false, false);
+			}
+		} else if (newEndVPN < oldEndVPN) {
+			int[] ppns = new int[oldEndVPN - newEndVPN];
+			for (int i = 0; i < ppns.length; i++) {
+				ppns[i] = pageTable[newEndVPN + i].ppn;
+			}
+			UserKernel.frameAllocator.free(ppns, ppns.length);
+			pageTable = Arrays.copyOf(pageTable, newEndVPN);
+		}
+		Machine.processor().setPageTable(pageTable);
+		return true;
+	}
+
+	// pipe() opens both ends of a new pipe and stores their descriptors,
+	// read end first, in the int[2] at vFDsAddr.
+	private int handlePipe(int vFDsAddr) {
+		int readFD = lowestFreeFD();
+		if (vFDsAddr == 0x0 || readFD == -1) {
+			return -1;
+		}
+		Pipe pipe = new Pipe();
+		installFD(readFD, pipe.getReadEnd());
+		int writeFD = lowestFreeFD();
+		if (writeFD == -1) {
+			handleClose(readFD);
+			return -1;
+		}
+		installFD(writeFD, pipe.getWriteEnd());
+
+		byte[] fds = new byte[2 * pointerSize];
+		Lib.bytesFromInt(fds, 0, readFD);
+		Lib.bytesFromInt(fds, pointerSize, writeFD);
+		if (writeVirtualMemory(vFDsAddr, fds) < fds.length) {
+			handleClose(readFD);
+			handleClose(writeFD);
 			return -1;
 		}
-		fdMap.get(fileDescriptor).close();
-		fdMap.put(fileDescriptor, null);
-		freeFDs.offer(fileDescriptor);
 		return 0;
 	}
 
+	// dup() gives the open file a second descriptor, the lowest one free.
+	// Both descriptors share the file and its position.
+	private int handleDup(int fileDescriptor) {
+		OpenFile file = getFile(fileDescriptor);
+		int newFD = lowestFreeFD();
+		if (file == null || newFD == -1) {
+			return -1;
+		}
+		UserKernel.retainOpenFile(file);
+		installFD(newFD, file);
+		return newFD;
+	}
+
+	// dup2() is dup() onto a chosen descriptor, closing whatever it referred
+	// to first.
+	private int handleDup2(int fileDescriptor, int newFD) {
+		OpenFile file = getFile(fileDescriptor);
+		if (file == null || newFD < 0 || newFD >= fdTable.length) {
+			return -1;
+		}
+		if (newFD == fileDescriptor) {
+			return newFD;
+		}
+		if (fdTable[newFD] != null) {
+			handleClose(newFD);
+		}
+		UserKernel.retainOpenFile(file);
+		installFD(newFD, file);
+		return newFD;
+	}
+
 	private int handleUnlink(int vFileAddr) {
 		String fName = readVirtualMemoryString(vFileAddr, maxStringLen);
 		if (fName.isEmpty() || fName == null) {
@@ -579,6 +993,7 @@ public class UserProcess {
 		if (!ThreadedKernel.fileSystem.remove(fName)) {
 			return -1;
 		}
+		UserKernel.coffCache.invalidate(fName);
 		return 0;
 	}
 
@@ -611,21 +1026,92 @@ public class UserProcess {
 		}
 
 		UserProcess childProcess = UserProcess.newUserProcess();
+		inheritStandardFiles(childProcess);
 
 		if (!childProcess.execute(programName, args)) {
+			childProcess.closeAllFiles();
 			Lib.debug(dbgProcess, "Could not find '" + programName + "', aborting.");
 			System.out.println("Could not find '" + programName + "', aborting.");
 			return -1;
 		}
+		adoptChild(childProcess);
+		System.out.println("parent is " + UserKernel.getUserProcess(PID).thread.getName());
+
+		return childProcess.PID;
+	}
+
+	/**
+	 * Give a child started by exec this process's standard input and output,
+	 * so that a shell can connect a pipeline by pointing them at pipe ends
+	 * with dup2() before each exec.
+	 * 
+	 * @param childProcess the new process.
+	 */
+	private void inheritStandardFiles(UserProcess childProcess) {
+		for (int fd = 0; fd <= 1; fd++) {
+			if (fdTable[fd] != null) {
+				childProcess.handleClose(fd);
+				UserKernel.retainOpenFile(fdTable[fd]);
+				childProcess.installFD(fd, fdTable[fd]);
+			}
+		}
+	}
+
+	private void adoptChild(UserProcess childProcess) {
 		UserKernel.addPIDUserProcessMap(childProcess.PID, childProcess);
 		childProcess.parent = UserKernel.getUserProcess(PID);
-		System.out.println("parent is " + UserKernel.getUserProcess(PID).thread.getName());
 		childProcesses.add(childProcess.PID);
+	}
 
-		return childProcess.PID;
+	/**
+	 * Start a process forked from this one. The caller has already given
+	 * <i>child</i> a copy of this process's address space. The child gets its
+	 * own handle on the executable and shares this process's open files. It
+	 * resumes after the fork syscall, with 0 as the return value.
+	 * 
+	 * @param child the new process.
+	 * @return the child's PID, or -1 if the executable could not be reopened.
+	 */
+	protected int startForkedChild(UserProcess child) {
+		CoffCache.CachedCoff childCoff = UserKernel.coffCache.open(executableName);
+		if (childCoff == null) {
+			Lib.debug(dbgProcess, "\tfork could not reopen " + executableName);
+			child.unloadSections();
+			UserKernel.existingProcessesNumLock.acquire();
+			UserKernel.decreaseExistingProcessesNum();
+			UserKernel.existingProcessesNumLock.release();
+			return -1;
+		}
+		child.coff = childCoff;
+		child.executableName = executableName;
+
+		child.fdTable = fdTable.clone();
+		child.fdBitmap = fdBitmap.clone();
+		for (OpenFile file : fdTable) {
+			if (file != null) {
+				UserKernel.retainOpenFile(file);
+			}
+		}
+
+		Processor processor = Machine.processor();
+		child.forkedRegisters = new int[Processor.numUserRegisters];
+		for (int i = 0; i < Processor.numUserRegisters; i++)
+			child.forkedRegisters[i] = processor.readRegister(i);
+		child.forkedRegisters[Processor.regV0] = 0;
+		child.forkedRegisters[Processor.regPC] = processor.readRegister(Processor.regNextPC);
+
+		adoptChild(child);
+
+		child.thread = new UThread(child);
+		child.thread.setName(thread.getName()).fork();
+
+		return child.PID;
 	}
 
 	private int handleJoin(int childProcessID, int childExitStatusVAddr) {
+		if (childProcessID == joinAnyChild) {
+			return handleJoinAny(childExitStatusVAddr);
+		}
 		if (!childProcesses.contains(childProcessID)) {
 			Lib.debug(dbgProcess, "Child process " + childProcessID + " doesn't belong to current process " + PID);
 			return -1;
@@ -635,7 +1121,42 @@ public class UserProcess {
 			return 0;
 		}
 		childProcess.thread.join();
-		childProcesses.remove(childProcessID);
+		return reapChild(childProcess, childExitStatusVAddr);
+	}
+
+	// join(-1, status): wait for whichever child exits first, and return its
+	// PID instead of 1/0.
+	private int handleJoinAny(int childExitStatusVAddr) {
+		UserProcess[] children = new UserProcess[childProcesses.size()];
+		KThread[] childThreads = new KThread[childProcesses.size()];
+		int numChildren = 0;
+		for (int childPID : childProcesses) {
+			UserProcess childProcess = UserKernel.getUserProcess(childPID);
+			if (childProcess != null) {
+				children[numChildren] = childProcess;
+				childThreads[numChildren] = childProcess.thread;
+				++numChildren;
+			}
+		}
+		if (numChildren == 0) {
+			Lib.debug(dbgProcess, "Process " + PID + " has no child to join");
+			return -1;
+		}
+
+		KThread finished = KThread.joinAny(Arrays.copyOf(childThreads, numChildren));
+		for (int i = 0; i < numChildren; i++) {
+			if (childThreads[i] == finished) {
+				reapChild(children[i], childExitStatusVAddr);
+				return children[i].PID;
+			}
+		}
+		Lib.assertNotReached("joinAny returned a thread that is not a child");
+		return -1;
+	}
+
+	// Disown a child that has finished and hand its exit status to the user.
+	private int reapChild(UserProcess childProcess, int childExitStatusVAddr) {
+		childProcesses.remove(childProcess.PID);
 
 		if (childProcess.exitStatus == null) {
 			return 0;
@@ -661,27 +1182,24 @@ public class UserProcess {
 		System.out.println("UserProcess." + sysCall + "(" + fName + ")");
 
 		OpenFile openFile = UserKernel.fileSystem.open(fName, isCreat);
+		if (openFile != null && isCreat) {
+			// creat truncates, so a cached copy of the file is stale
+			UserKernel.coffCache.invalidate(fName);
+		}
 		int fd = updateOpenFD(openFile);
 		return fd;
 	}
 
 	private int updateOpenFD(OpenFile openFile) {
-		boolean isFDMapFull = (nextFD >= maxFileTableSize && freeFDs.isEmpty());
-		if (openFile == null || isFDMapFull) {
+		if (openFile == null) {
 			return -1;
 		}
-		int freeFD = getFreeFD();
-		fdMap.put(freeFD, openFile);
-		return freeFD;
-	}
-
-	private int getFreeFD() {
-		int freeFD = nextFD;
-		if (!freeFDs.isEmpty()) {
-			freeFD = freeFDs.poll();
-		} else {
-			++nextFD;
+		int freeFD = lowestFreeFD();
+		if (freeFD == -1) {
+			openFile.close();
+			return -1;
 		}
+		installFD(freeFD, openFile);
 		return freeFD;
 	}
 
@@ -689,10 +1207,13 @@ public class UserProcess {
 		return PID;
 	}
 
-	private static final int syscallHalt = 0, syscallExit = 1, syscallExec = 2,
+	/** Syscall numbers; <tt>SyscallStats</tt> checks its names against them. */
+	static final int syscallHalt = 0, syscallExit = 1, syscallExec = 2,
 			syscallJoin = 3, syscallCreate = 4, syscallOpen = 5,
 			syscallRead = 6, syscallWrite = 7, syscallClose = 8,
-			syscallUnlink = 9;
+			syscallUnlink = 9, syscallReadv = 13, syscallWritev = 14,
+			syscallPread = 15, syscallPwrite = 16, syscallDup = 18,
+			syscallDup2 = 19, syscallPipe = 20, syscallSbrk = 21;
 
 	/**
 	 * Handle a syscall exception. Called by <tt>handleException()</tt>. The
@@ -718,7 +1239,8 @@ public class UserProcess {
 	 * </tr>
 	 * <tr>
 	 * <td>3</td>
-	 * <td><tt>int  join(int pid, int *status);</tt></td>
+	 * <td><tt>int  join(int pid, int *status);</tt> (<tt>pid</tt> -1 waits
+	 * for any child)</td>
 	 * </tr>
 	 * <tr>
 	 * <td>4</td>
@@ -746,6 +1268,38 @@ public class UserProcess {
 	 * <td>9</td>
 	 * <td><tt>int  unlink(char *name);</tt></td>
 	 * </tr>
+	 * <tr>
+	 * <td>13</td>
+	 * <td><tt>int  readv(int fd, struct iovec *iov, int iovcnt);</tt></td>
+	 * </tr>
+	 * <tr>
+	 * <td>14</td>
+	 * <td><tt>int  writev(int fd, struct iovec *iov, int iovcnt);</tt></td>
+	 * </tr>
+	 * <tr>
+	 * <td>15</td>
+	 * <td><tt>int  pread(int fd, char *buffer, int size, int offset);</tt></td>
+	 * </tr>
+	 * <tr>
+	 * <td>16</td>
+	 * <td><tt>int  pwrite(int fd, char *buffer, int size, int offset);</tt></td>
+	 * </tr>
+	 * <tr>
+	 * <td>18</td>
+	 * <td><tt>int  dup(int fd);</tt></td>
+	 * </tr>
+	 * <tr>
+	 * <td>19</td>
+	 * <td><tt>int  dup2(int fd, int newfd);</tt></td>
+	 * </tr>
+	 * <tr>
+	 * <td>20</td>
+	 * <td><tt>int  pipe(int fds[2]);</tt></td>
+	 * </tr>
+	 * <tr>
+	 * <td>21</td>
+	 * <td><tt>void *sbrk(int increment);</tt></td>
+	 * </tr>
 	 * </table>
 	 * 
 	 * @param syscall the syscall number.
@@ -777,6 +1331,22 @@ public class UserProcess {
 				return handleExec(a0, a1, a2);
 			case syscallJoin:
 				return handleJoin(a0, a1);
+			case syscallReadv:
+				return handleReadv(a0, a1, a2);
+			case syscallWritev:
+				return handleWritev(a0, a1, a2);
+			case syscallPread:
+				return handlePread(a0, a1, a2, a3);
+			case syscallPwrite:
+				return handlePwrite(a0, a1, a2, a3);
+			case syscallDup:
+				return handleDup(a0);
+			case syscallDup2:
+				return handleDup2(a0, a1);
+			case syscallPipe:
+				return handlePipe(a0);
+			case syscallSbrk:
+				return handleSbrk(a0);
 
 			default:
 				Lib.debug(dbgProcess, "Unknown syscall " + syscall);
@@ -818,7 +1388,13 @@ public class UserProcess {
 	}
 
 	/** The program being run by this process. */
-	protected Coff coff;
+	protected CoffCache.CachedCoff coff;
+
+
+	private String executableName;
+
+	/** Set in a forked process until its thread first loads its registers. */
+	private int[] forkedRegisters;
 
 	/** This process's page table. */
 	protected TranslationEntry[] pageTable;
@@ -829,14 +1405,17 @@ public class UserProcess {
 	/** The number of pages in the program's stack. */
 	protected final int stackPages = 8;
 
+	/** The end of the heap, as set by <tt>sbrk()</tt>. */
+	protected int programBreak;
+
 	/** The thread that executes the user-level program. */
 	protected UThread thread;
 
-	// file descriptor table
-	protected Map<Integer, OpenFile> fdMap;
+	// file descriptor table, indexed by descriptor; null when not in use
+	protected OpenFile[] fdTable;
 
-	// next file descriptor
-	private int nextFD;
+	// one bit per descriptor, set when it is in use
+	private int[] fdBitmap;
 
 	// child processes
 	private Set<Integer> childProcesses;
@@ -844,9 +1423,6 @@ public class UserProcess {
 	// exitStatus
 	private Integer exitStatus;
 
-	// free file descriptors
-	private Queue<Integer> freeFDs;
-
 	private int initialPC, initialSP;
 
 	private int argc, argv;
@@ -857,10 +1433,14 @@ public class UserProcess {
 
 	private static final int maxStringLen = 256; // 256 bytes
 
-	private static final int maxFileTableSize = 16;
+	private static final int maxIovecs = 16; // iovecs per readv()/writev()
+
+	private static final int iovecSize = 8; // struct iovec: base, len
 
 	private static final int pointerSize = 4; // 4 bytes
 
+	private static final int joinAnyChild = -1; // join(-1, ...) waits for any child
+
 	private static final int intSize = 4; // 4 bytes
 
 	private int PID;
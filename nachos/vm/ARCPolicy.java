@@ -0,0 +1,119 @@
+package nachos.vm;
+
+import nachos.machine.*;
+
+/**
+ * Adaptive replacement, in the form of CAR (Clock with Adaptive
+ * Replacement, Bansal and Modha), which keeps ARC's lists and adaptation but
+ * works from used bits rather than seeing every access.
+ *
+ * <p>
+ * Pages seen once recently are on the clock <i>T1</i>, pages seen at least
+ * twice on the clock <i>T2</i>. Pages evicted from each are remembered on
+ * <i>B1</i> and <i>B2</i>. A fault on a page remembered on B1 means T1 was
+ * too small, and moves the target size <i>p</i> of T1 up; a fault on a page
+ * remembered on B2 moves it down. Either way the page goes on T2. When a
+ * victim is needed, T1 is swept if it is at least its target size and T2
+ * otherwise; a used page found on T1 is promoted to T2, and one found on T2
+ * goes round again.
+ */
+public class ARCPolicy extends ReplacementPolicy {
+	/**
+	 * Allocate a new ARC policy.
+	 */
+	public ARCPolicy() {
+		super();
+
+		t1 = new FrameList(numFrames);
+		t2 = new FrameList(numFrames);
+		b1 = new GhostList(numFrames);
+		b2 = new GhostList(numFrames);
+	}
+
+	public void pageLoaded(int ppn) {
+		pageRemoved(ppn);
+
+		long key = pageKey(VMKernel.getPageInfo(ppn));
+		int b1Size = b1.size(), b2Size = b2.size();
+
+		if (b1.remove(key)) {
+			target = Math.min(target + Math.max(1, b2Size / b1Size), numFrames);
+			t2.addLast(ppn);
+		}
+		else if (b2.remove(key)) {
+			target = Math.max(target - Math.max(1, b1Size / b2Size), 0);
+			t2.addLast(ppn);
+		}
+		else {
+			// keep the directory to twice the number of frames
+			if (t1.size() + b1Size >= numFrames)
+				b1.removeFirst();
+			else if (t1.size() + t2.size() + b1Size + b2Size >= 2 * numFrames)
+				b2.removeFirst();
+			t1.addLast(ppn);
+		}
+	}
+
+	public void pageRemoved(int ppn) {
+		if (t1.contains(ppn))
+			t1.remove(ppn);
+		else if (t2.contains(ppn))
+			t2.remove(ppn);
+	}
+
+	public int chooseVictim() {
+		// pinned frames passed in a row on each clock; once a whole clock
+		// is pinned, sweep the other one
+		int t1Pinned = 0, t2Pinned = 0;
+
+		while (true) {
+			boolean fromT1 = t1.size() >= Math.max(1, target);
+			if (fromT1 && t1Pinned >= t1.size())
+				fromT1 = false;
+			else if (!fromT1 && (t2.isEmpty() || t2Pinned >= t2.size()))
+				fromT1 = true;
+
+			FrameList clock = fromT1 ? t1 : t2;
+			Lib.assertTrue(!clock.isEmpty());
+
+			int ppn = clock.getFirst();
+			VMKernel.PageInfo pageInfo = VMKernel.getPageInfo(ppn);
+
+			if (pageInfo.isPinned()) {
+				clock.rotate();
+				if (fromT1)
+					t1Pinned++;
+				else
+					t2Pinned++;
+				continue;
+			}
+
+			if (VMProcess.clearUsed(pageInfo)) {
+				if (fromT1) {
+					t1.remove(ppn);
+					t2.addLast(ppn);
+					t1Pinned = 0;
+				}
+				else {
+					t2.rotate();
+					t2Pinned = 0;
+				}
+				continue;
+			}
+
+			clock.remove(ppn);
+			if (fromT1)
+				b1.add(pageKey(pageInfo));
+			else
+				b2.add(pageKey(pageInfo));
+			return ppn;
+		}
+	}
+
+	private FrameList t1, t2;
+
+	private GhostList b1, b2;
+
+	/** The target size of T1. */
+	private int target = 0;
+}
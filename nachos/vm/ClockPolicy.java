@@ -0,0 +1,35 @@
+package nachos.vm;
+
+/**
+ * The clock algorithm, also known as second chance: a hand sweeps the frames
+ * in order, clearing used bits, and evicts the first frame whose used bit was
+ * already clear.
+ */
+public class ClockPolicy extends ReplacementPolicy {
+	/**
+	 * Allocate a new clock policy.
+	 */
+	public ClockPolicy() {
+		super();
+	}
+
+	public void pageLoaded(int ppn) {
+	}
+
+	public void pageRemoved(int ppn) {
+	}
+
+	public int chooseVictim() {
+		while (true) {
+			int ppn = hand;
+			hand = (hand + 1) % numFrames;
+
+			VMKernel.PageInfo pageInfo = VMKernel.getPageInfo(ppn);
+			if (pageInfo.isInUse() && !pageInfo.isPinned()
+					&& !VMProcess.clearUsed(pageInfo))
+				return ppn;
+		}
+	}
+
+	private int hand = 0;
+}
@@ -0,0 +1,59 @@
+package nachos.vm;
+
+/**
+ * The inverted page table: what each physical frame holds. There is one
+ * <tt>PageInfo</tt> per frame, allocated when the kernel starts and reused
+ * from then on, so looking up a frame is an array index and mapping a page
+ * into a frame allocates nothing.
+ *
+ * <p>
+ * Entries are only changed with <tt>VMKernel.pFExceptionLock</tt> held (pin
+ * counts with <tt>VMKernel.pinLock</tt>), and since a Nachos thread is only
+ * switched out when it blocks or enables interrupts, they can be read without
+ * a lock. In particular the clock hand scans the table without locking each
+ * frame.
+ */
+class FrameTable {
+	/**
+	 * Allocate a frame table with every frame unused.
+	 *
+	 * @param numFrames the number of physical frames.
+	 */
+	FrameTable(int numFrames) {
+		frames = new VMKernel.PageInfo[numFrames];
+		for (int ppn = 0; ppn < numFrames; ppn++)
+			frames[ppn] = new VMKernel.PageInfo();
+	}
+
+	/**
+	 * Return the entry of a frame. The entry of an unused frame has no
+	 * owner.
+	 *
+	 * @param ppn the frame.
+	 * @return the frame's entry.
+	 */
+	VMKernel.PageInfo get(int ppn) {
+		return frames[ppn];
+	}
+
+	/**
+	 * Return the number of frames.
+	 */
+	int getNumFrames() {
+		return frames.length;
+	}
+
+	/**
+	 * Return the number of frames holding a page.
+	 */
+	int getNumInUse() {
+		int inUse = 0;
+		for (int ppn = 0; ppn < frames.length; ppn++) {
+			if (frames[ppn].isInUse())
+				inUse++;
+		}
+		return inUse;
+	}
+
+	private VMKernel.PageInfo[] frames;
+}
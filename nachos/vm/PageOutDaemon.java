@@ -0,0 +1,111 @@
+package nachos.vm;
+
+import nachos.machine.*;
+import nachos.threads.*;
+import nachos.userprog.*;
+
+/**
+ * A kernel thread that evicts pages ahead of demand. It sleeps until a page
+ * fault leaves fewer free frames than the frame allocator's low watermark,
+ * then evicts pages chosen by the replacement policy until the high
+ * watermark is reached, so that later faults find a free frame instead of
+ * evicting a page, and writing it to swap, themselves.
+ *
+ * <p>
+ * Pages are evicted a batch at a time, and the dirty ones in a batch go to
+ * the swap file together (see <tt>SwapBatch</tt>). The daemon takes
+ * <tt>VMKernel.pinLock</tt> and <tt>VMKernel.pFExceptionLock</tt> for each
+ * batch and lets faulting processes in between batches.
+ */
+class PageOutDaemon implements Runnable {
+	/**
+	 * Allocate a new page-out daemon.
+	 *
+	 * @param batchSize the number of pages to evict at a time.
+	 */
+	PageOutDaemon(int batchSize) {
+		Lib.assertTrue(batchSize > 0);
+
+		victims = new int[batchSize];
+		batch = new SwapBatch(batchSize);
+		pagesNeeded = new Condition(VMKernel.pFExceptionLock, "pagesNeeded");
+	}
+
+	/**
+	 * Start the daemon's thread.
+	 */
+	void start() {
+		new KThread(this).setName("page-out daemon").fork();
+	}
+
+	/**
+	 * Wake the daemon if free frames are below the low watermark. Called
+	 * with <tt>VMKernel.pFExceptionLock</tt> held, after a frame is
+	 * allocated.
+	 */
+	void frameAllocated() {
+		if (UserKernel.frameAllocator.isBelowLowWatermark())
+			pagesNeeded.wake();
+	}
+
+	public void run() {
+		while (true) {
+			VMKernel.pFExceptionLock.acquire();
+			while (!UserKernel.frameAllocator.isBelowLowWatermark())
+				pagesNeeded.sleep();
+			VMKernel.pFExceptionLock.release();
+
+			while (reclaimBatch())
+				KThread.yield();
+		}
+	}
+
+	/**
+	 * Evict one batch of pages and free their frames.
+	 *
+	 * @return <tt>true</tt> if more frames are needed and there may be pages
+	 *         left to evict.
+	 */
+	private boolean reclaimBatch() {
+		FrameAllocator allocator = UserKernel.frameAllocator;
+
+		VMKernel.pinLock.acquire();
+		VMKernel.pFExceptionLock.acquire();
+
+		int count = 0;
+		while (count < victims.length && hasEvictablePage()
+				&& allocator.getNumFree() + count < allocator.getHighWatermark()) {
+			int ppn = VMKernel.replacementPolicy.chooseVictim();
+			VMKernel.getPageInfo(ppn).getVMProcess().eviction(ppn, batch);
+			victims[count++] = ppn;
+		}
+
+		// the pages must be in the swap file before anyone can fault them in
+		batch.flush();
+		allocator.free(victims, count);
+		Lib.debug(dbgVM, "page-out daemon freed " + count + " frames");
+
+		boolean more = count > 0 && !allocator.isAtHighWatermark()
+				&& hasEvictablePage();
+
+		VMKernel.pFExceptionLock.release();
+		VMKernel.pinLock.release();
+
+		return more;
+	}
+
+	/**
+	 * Test if some frame holds a page that is not pinned.
+	 */
+	private boolean hasEvictablePage() {
+		return VMKernel.getIPTSize() > VMKernel.pinCount;
+	}
+
+	private int[] victims;
+
+	private SwapBatch batch;
+
+	private Condition pagesNeeded;
+
+	private static final char dbgVM = 'v';
+}
@@ -0,0 +1,229 @@
+package nachos.vm;
+
+import nachos.machine.*;
+
+/**
+ * Chooses which frame to evict when a page fault finds no free frame. The
+ * policy is chosen with the <tt>nachos.conf</tt> key
+ * <tt>VMKernel.replacementPolicy</tt>, the name of a subclass such as
+ * <tt>nachos.vm.ClockPolicy</tt>.
+ *
+ * <p>
+ * The kernel tells the policy when a frame is loaded with a page and when a
+ * frame is given up without being evicted, and asks it for a victim. All of
+ * these are called with <tt>VMKernel.pFExceptionLock</tt> held. The only
+ * record of accesses is the used bit the processor sets in each page table
+ * entry, so every policy here is a clock-style approximation of the
+ * algorithm it is named after.
+ *
+ * <p>
+ * The policy also keeps the numbers used to compare policies: page faults,
+ * evictions, and evictions that had to write the page back.
+ */
+public abstract class ReplacementPolicy {
+	/**
+	 * Allocate a new replacement policy.
+	 */
+	public ReplacementPolicy() {
+		numFrames = Machine.processor().getNumPhysPages();
+	}
+
+	/**
+	 * Note that a frame has just been loaded with a page, after a fault or a
+	 * copy-on-write. The frame table entry already names its owner and vpn.
+	 *
+	 * @param ppn the frame.
+	 */
+	public abstract void pageLoaded(int ppn);
+
+	/**
+	 * Note that a frame no longer holds a page. Called when a page is freed,
+	 * and also for the victim after <tt>chooseVictim()</tt>.
+	 *
+	 * @param ppn the frame.
+	 */
+	public abstract void pageRemoved(int ppn);
+
+	/**
+	 * Choose a frame to evict. The frame must hold a page and must not be
+	 * pinned; the caller guarantees that such a frame exists.
+	 *
+	 * @return the frame to evict.
+	 */
+	public abstract int chooseVictim();
+
+	/**
+	 * Count a page fault.
+	 */
+	public void pageFaulted() {
+		numFaults++;
+	}
+
+	/**
+	 * Count an eviction.
+	 *
+	 * @param wroteBack <tt>true</tt> if the victim was dirty and had to be
+	 *        written to swap or to its mapped file.
+	 */
+	public void pageEvicted(boolean wroteBack) {
+		numEvictions++;
+		if (wroteBack)
+			numWriteBacks++;
+	}
+
+	/**
+	 * Print the fault rate, per 1000 ticks of simulated time, and the number
+	 * of evictions and write-backs.
+	 */
+	public void printStats() {
+		long ticks = Machine.timer().getTime();
+		double faultRate = (ticks == 0) ? 0 : numFaults * 1000.0 / ticks;
+
+		System.out.println("Page replacement (" + getClass().getSimpleName()
+				+ "): faults " + numFaults + " ("
+				+ String.format("%.3f", faultRate)
+				+ " per 1000 ticks), evictions " + numEvictions
+				+ ", dirty write-backs " + numWriteBacks);
+	}
+
+	/**
+	 * Return a key that identifies the page a frame holds, for remembering
+	 * pages after they are evicted.
+	 */
+	protected static long pageKey(VMKernel.PageInfo pageInfo) {
+		return ((long) pageInfo.getVMProcess().getPID() << 32)
+				| (pageInfo.getVpn() & 0xFFFFFFFFL);
+	}
+
+	/**
+	 * A list of frames in insertion order, linked through arrays indexed by
+	 * ppn so that nothing is allocated as frames come and go. A frame is in
+	 * at most one list at a time.
+	 */
+	protected static class FrameList {
+		FrameList(int numFrames) {
+			next = new int[numFrames];
+			prev = new int[numFrames];
+			member = new boolean[numFrames];
+		}
+
+		int size() {
+			return size;
+		}
+
+		boolean isEmpty() {
+			return size == 0;
+		}
+
+		boolean contains(int ppn) {
+			return member[ppn];
+		}
+
+		/**
+		 * Return the oldest frame, or -1 if the list is empty.
+		 */
+		int getFirst() {
+			return head;
+		}
+
+		void addLast(int ppn) {
+			Lib.assertTrue(!member[ppn]);
+
+			member[ppn] = true;
+			next[ppn] = -1;
+			prev[ppn] = tail;
+			if (tail == -1)
+				head = ppn;
+			else
+				next[tail] = ppn;
+			tail = ppn;
+			size++;
+		}
+
+		void remove(int ppn) {
+			Lib.assertTrue(member[ppn]);
+
+			if (prev[ppn] == -1)
+				head = next[ppn];
+			else
+				next[prev[ppn]] = next[ppn];
+			if (next[ppn] == -1)
+				tail = prev[ppn];
+			else
+				prev[next[ppn]] = prev[ppn];
+			member[ppn] = false;
+			size--;
+		}
+
+		/**
+		 * Move the oldest frame to the end, as a clock hand passing it.
+		 */
+		void rotate() {
+			int ppn = head;
+			remove(ppn);
+			addLast(ppn);
+		}
+
+		private int[] next, prev;
+
+		private boolean[] member;
+
+		private int head = -1, tail = -1, size = 0;
+	}
+
+	/**
+	 * A bounded FIFO of keys of recently evicted pages. When it is full,
+	 * adding a key forgets the oldest one.
+	 */
+	protected static class GhostList {
+		GhostList(int capacity) {
+			keys = new long[Math.max(capacity, 1)];
+		}
+
+		int size() {
+			return size;
+		}
+
+		void add(long key) {
+			if (size == keys.length)
+				removeFirst();
+			keys[(first + size) % keys.length] = key;
+			size++;
+		}
+
+		void removeFirst() {
+			if (size > 0) {
+				first = (first + 1) % keys.length;
+				size--;
+			}
+		}
+
+		/**
+		 * Remove a key if it is present.
+		 *
+		 * @return <tt>true</tt> if the key was present.
+		 */
+		boolean remove(long key) {
+			for (int i = 0; i < size; i++) {
+				if (keys[(first + i) % keys.length] != key)
+					continue;
+
+				// close the gap by shifting the newer keys down
+				for (int j = i; j < size - 1; j++)
+					keys[(first + j) % keys.length] = keys[(first + j + 1)
+							% keys.length];
+				size--;
+				return true;
+			}
+			return false;
+		}
+
+		private long[] keys;
+
+		private int first = 0, size = 0;
+	}
+
+	protected int numFrames;
+
+	private int numFaults = 0, numEvictions = 0, numWriteBacks = 0;
+}
@@ -0,0 +1,73 @@
+package nachos.vm;
+
+import nachos.machine.*;
+
+/**
+ * Pages on their way to the swap file. Evicting a dirty page copies it here,
+ * so its frame can be reused, and <tt>flush()</tt> then writes every page
+ * collected, with one write for each run of consecutive swap pages. The
+ * buffer is allocated once.
+ *
+ * <p>
+ * A page must reach the swap file before it can be faulted back in, so a
+ * batch is always flushed before <tt>VMKernel.pFExceptionLock</tt>, which
+ * the caller holds throughout, is released.
+ */
+class SwapBatch {
+	/**
+	 * Allocate a new batch.
+	 *
+	 * @param capacity the number of pages the batch can hold.
+	 */
+	SwapBatch(int capacity) {
+		Lib.assertTrue(capacity > 0);
+
+		spns = new int[capacity];
+		buffer = new byte[capacity * pageSize];
+	}
+
+	/**
+	 * Copy a frame into the batch, to be written to a swap page. The batch
+	 * is flushed first if it is full.
+	 *
+	 * @param spn the swap page to write.
+	 * @param ppn the frame to copy.
+	 */
+	void add(int spn, int ppn) {
+		if (isFull())
+			flush();
+
+		System.arraycopy(Machine.processor().getMemory(), ppn * pageSize,
+				buffer, count * pageSize, pageSize);
+		spns[count++] = spn;
+	}
+
+	boolean isFull() {
+		return count == spns.length;
+	}
+
+	/**
+	 * Write every page in the batch to the swap file and empty the batch.
+	 */
+	void flush() {
+		int first = 0;
+		while (first < count) {
+			int end = first + 1;
+			while (end < count && spns[end] == spns[end - 1] + 1)
+				end++;
+
+			VMKernel.writeSwapFile(spns[first], buffer, first * pageSize,
+					(end - first) * pageSize);
+			first = end;
+		}
+		count = 0;
+	}
+
+	private int[] spns;
+
+	private byte[] buffer;
+
+	private int count = 0;
+
+	private static final int pageSize = Processor.pageSize;
+}
@@ -0,0 +1,107 @@
+package nachos.vm;
+
+import nachos.machine.*;
+
+/**
+ * The full version of 2Q (Johnson and Shasha). A page faulted in for the
+ * first time goes on a short FIFO, <i>A1in</i>; being used again while it is
+ * there counts for nothing, so a burst of accesses on load does not make a
+ * page look hot. When it leaves A1in its key is remembered on <i>A1out</i>,
+ * and a page faulted in again while it is still remembered goes on the main
+ * queue, <i>Am</i>. Am is managed as a clock, standing in for LRU.
+ *
+ * <p>
+ * A1in holds a quarter of the frames and A1out remembers half as many pages
+ * as there are frames, the sizes the authors recommend.
+ */
+public class TwoQPolicy extends ReplacementPolicy {
+	/**
+	 * Allocate a new 2Q policy.
+	 */
+	public TwoQPolicy() {
+		super();
+
+		a1in = new FrameList(numFrames);
+		am = new FrameList(numFrames);
+		a1out = new GhostList(numFrames / 2);
+		a1inTarget = Math.max(1, numFrames / 4);
+	}
+
+	public void pageLoaded(int ppn) {
+		pageRemoved(ppn);
+
+		if (a1out.remove(pageKey(VMKernel.getPageInfo(ppn))))
+			am.addLast(ppn);
+		else
+			a1in.addLast(ppn);
+	}
+
+	public void pageRemoved(int ppn) {
+		if (a1in.contains(ppn))
+			a1in.remove(ppn);
+		else if (am.contains(ppn))
+			am.remove(ppn);
+	}
+
+	public int chooseVictim() {
+		int victim = -1;
+		if (a1in.size() > a1inTarget || am.isEmpty())
+			victim = chooseFromA1in();
+		if (victim == -1)
+			victim = chooseFromAm();
+		if (victim == -1)
+			victim = chooseFromA1in();
+
+		Lib.assertTrue(victim != -1);
+		return victim;
+	}
+
+	/**
+	 * Take the oldest unpinned page off A1in and remember it on A1out.
+	 *
+	 * @return the frame, or -1 if every page on A1in is pinned.
+	 */
+	private int chooseFromA1in() {
+		for (int i = 0; i < a1in.size(); i++) {
+			int ppn = a1in.getFirst();
+			VMKernel.PageInfo pageInfo = VMKernel.getPageInfo(ppn);
+			if (pageInfo.isPinned()) {
+				a1in.rotate();
+				continue;
+			}
+
+			VMProcess.clearUsed(pageInfo);
+			a1in.remove(ppn);
+			a1out.add(pageKey(pageInfo));
+			return ppn;
+		}
+		return -1;
+	}
+
+	/**
+	 * Run the clock over Am.
+	 *
+	 * @return the frame, or -1 if every page on Am is pinned.
+	 */
+	private int chooseFromAm() {
+		// two sweeps: the first may only clear used bits
+		for (int i = 0; i < 2 * am.size(); i++) {
+			int ppn = am.getFirst();
+			VMKernel.PageInfo pageInfo = VMKernel.getPageInfo(ppn);
+			if (pageInfo.isPinned() || VMProcess.clearUsed(pageInfo)) {
+				am.rotate();
+				continue;
+			}
+
+			am.remove(ppn);
+			return ppn;
+		}
+		return -1;
+	}
+
+	private FrameList a1in, am;
+
+	private GhostList a1out;
+
+	private int a1inTarget;
+}
@@ -1,8 +1,7 @@
 package nachos.vm;
 
-import java.util.HashMap;
-import java.util.LinkedList;
-import java.util.Map;
+import java.util.ArrayList;
+import java.util.Arrays;
 
 import nachos.machine.*;
 import nachos.threads.*;
@@ -26,22 +25,35 @@ public class VMKernel extends UserKernel {
 	public void initialize(String[] args) {
 		super.initialize(args);
 		swapFile = ThreadedKernel.fileSystem.open("swapFile", true);
-		freeSwapPages = new LinkedList<>();
-		invertedPageTable = new HashMap<>();
+		freeSwapPages = new int[Machine.processor().getNumPhysPages()];
+		swapPageRefs = new int[freeSwapPages.length];
+		numFreeSwapPages = 0;
+		frameTable = new FrameTable(Machine.processor().getNumPhysPages());
+		replacementPolicy = (ReplacementPolicy) Lib.constructObject(Config
+				.getString("VMKernel.replacementPolicy", "nachos.vm.ClockPolicy"));
 		swapFileCount = 0;
-		victimPage = 0;
 		pinCount = 0;
+		reservedPins = 0;
+		maxPins = Math.max(1, Machine.processor().getNumPhysPages() - 1);
 		initLock();
+
+		evictionBatch = new SwapBatch(1);
+		faultAroundPages = Math.max(1, Config.getInteger("VMKernel.faultAroundPages", 4));
+		maxPrefetchPages = Math.max(faultAroundPages, Config.getInteger("VMKernel.maxPrefetchPages", 16));
+		prefetchBuffer = new byte[maxPrefetchPages * Processor.pageSize];
+		prefetchPPNs = new int[maxPrefetchPages];
+		if (Config.getBoolean("VMKernel.pageOutDaemon", true)) {
+			pageOutDaemon = new PageOutDaemon(Config.getInteger("VMKernel.pageOutBatch", 8));
+			pageOutDaemon.start();
+		}
 	}
 
 	private static void initLock() {
-		IPTLock = new Lock();
-		freeSwapPageLock = new Lock();
-		swapFileLock = new Lock();
-		victimLock = new Lock();
-		pinLock = new Lock();
-		pFExceptionLock = new Lock();
-		fullPinCV = new Condition(pFExceptionLock);
+		freeSwapPageLock = new Lock("freeSwapPageLock");
+		swapFileLock = new Lock("swapFileLock");
+		pinLock = new Lock("pinLock");
+		pFExceptionLock = new Lock("pFExceptionLock");
+		pinsAvailable = new Condition(pinLock, "pinsAvailable");
 	}
 
 	/**
@@ -62,56 +74,113 @@ public class VMKernel extends UserKernel {
 	 * Terminate this kernel. Never returns.
 	 */
 	public void terminate() {
+		replacementPolicy.printStats();
 		super.terminate();
 	}
 
 	public static int getFreeSwapPage() {
 		freeSwapPageLock.acquire();
 
-		if (!freeSwapPages.isEmpty()) {
-			int freeSwapFile = freeSwapPages.poll();
-			freeSwapPageLock.release();
-			return freeSwapFile;
+		int freeSwapFile;
+		if (numFreeSwapPages > 0) {
+			freeSwapFile = freeSwapPages[--numFreeSwapPages];
+		} else {
+			freeSwapFile = swapFileCount;
+			++swapFileCount;
+			// the arrays only grow with the swap file, so this is rare
+			if (swapFileCount > swapPageRefs.length) {
+				swapPageRefs = Arrays.copyOf(swapPageRefs, swapPageRefs.length * 2);
+				freeSwapPages = Arrays.copyOf(freeSwapPages, swapPageRefs.length);
+			}
 		}
-		int freeSwapFile = swapFileCount;
-		++swapFileCount;
+		swapPageRefs[freeSwapFile] = 1;
 
 		freeSwapPageLock.release();
-		Lib.debug(dbgProcess, "free swap file is " + freeSwapFile);
 		return freeSwapFile;
 	}
 
 	public static void addFreeSwapPage(int page) {
 		freeSwapPageLock.acquire();
 
-		freeSwapPages.offer(page);
+		swapPageRefs[page] = 0;
+		freeSwapPages[numFreeSwapPages++] = page;
 
 		freeSwapPageLock.release();
 
 		return;
 	}
 
+	/**
+	 * Note that one more process refers to a swap page, because a forked
+	 * child inherited it or because a shared frame was swapped out.
+	 */
+	public static void shareSwapPage(int spn) {
+		freeSwapPageLock.acquire();
+
+		swapPageRefs[spn]++;
+
+		freeSwapPageLock.release();
+	}
+
+	/**
+	 * Test if more than one process refers to a swap page, in which case it
+	 * must not be overwritten.
+	 */
+	public static boolean isSwapPageShared(int spn) {
+		freeSwapPageLock.acquire();
+
+		boolean shared = swapPageRefs[spn] > 1;
+
+		freeSwapPageLock.release();
+		return shared;
+	}
+
+	/**
+	 * Drop a process's reference to a swap page, freeing it after the last
+	 * one.
+	 */
+	public static void releaseSwapPage(int spn) {
+		freeSwapPageLock.acquire();
+
+		Lib.assertTrue(swapPageRefs[spn] > 0);
+		if (--swapPageRefs[spn] == 0) {
+			freeSwapPages[numFreeSwapPages++] = spn;
+		}
+
+		freeSwapPageLock.release();
+	}
+
+	/**
+	 * The frame table entry of one physical frame. Entries are allocated once,
+	 * by <tt>FrameTable</tt>, and updated in place as pages come and go.
+	 */
 	static class PageInfo {
-		protected VMProcess vmProcess;
-		protected int vpn;
-		public boolean pinned;
-
-		public PageInfo() {
-			vmProcess = null;
-			vpn = -1;
-			pinned = false;
+		/**
+		 * Test if this frame holds a page.
+		 */
+		public boolean isInUse() {
+			return vmProcess != null;
 		}
 
-		public PageInfo(VMProcess vmProcess, int vpn) {
-			this.vmProcess = vmProcess;
-			this.vpn = vpn;
-			this.pinned = false;
+		/**
+		 * Test if this frame may not be evicted, because the kernel is copying
+		 * to or from it.
+		 */
+		public boolean isPinned() {
+			return pinCount > 0;
 		}
 
-		public PageInfo(VMProcess vmProcess, int vpn, boolean pinned) {
-			this.vmProcess = vmProcess;
-			this.vpn = vpn;
-			this.pinned = pinned;
+		/**
+		 * Test if this frame is mapped by every process in
+		 * <tt>getSharers()</tt>, at the same vpn in each. It holds either a
+		 * read-only executable page or, after fork(), a copy-on-write page.
+		 */
+		public boolean isShared() {
+			return sharers != null;
+		}
+
+		public ArrayList<VMProcess> getSharers() {
+			return sharers;
 		}
 
 		public void setVMProcess(VMProcess vmProcess) {
@@ -130,64 +199,187 @@ public class VMKernel extends UserKernel {
 			return vpn;
 		}
 
-	}
+		/**
+		 * Make this frame shared, with its owner as the only sharer so far.
+		 * The list is kept with the frame and reused, so sharing a frame
+		 * allocates nothing once the list has grown to fit.
+		 */
+		void startSharing() {
+			sharers = sharerList;
+			sharers.clear();
+			sharers.add(vmProcess);
+		}
 
-	public static PageInfo getPageInfo(int ppn) {
-		IPTLock.acquire();
+		/**
+		 * Record that this frame now holds a private page. Pins belong to the
+		 * frame rather than the page, so the pin count is left alone.
+		 */
+		void assign(VMProcess vmProcess, int vpn) {
+			this.vmProcess = vmProcess;
+			this.vpn = vpn;
+			sharedFrames = null;
+			sharers = null;
+		}
+
+		/**
+		 * Record that this frame no longer holds a page.
+		 */
+		void clear() {
+			assign(null, -1);
+		}
 
-		PageInfo pageInfo = invertedPageTable.get(ppn);
+		protected VMProcess vmProcess = null;
 
-		IPTLock.release();
-		return pageInfo;
-	}
+		protected int vpn = -1;
 
-	public static void removePPageFromIPT(int ppn) {
-		IPTLock.acquire();
+		/** The number of transfers that have this frame pinned. */
+		protected int pinCount = 0;
+
+		/**
+		 * The shared page cache entry of a read-only executable page: the
+		 * frames of its section, and its page within the section.
+		 * <tt>null</tt> for any other page.
+		 */
+		protected int[] sharedFrames = null;
 
-		invertedPageTable.put(ppn, null);
+		protected int sharedSpn;
 
-		IPTLock.release();
+		protected ArrayList<VMProcess> sharers = null;
+
+		private final ArrayList<VMProcess> sharerList = new ArrayList<>(4);
 	}
 
-	public static void addPPageToIPT(int ppn, VMProcess vmProcess, int vpn) {
-		IPTLock.acquire();
+	/**
+	 * Return the frame table entry of a frame. No lock is taken; see
+	 * <tt>FrameTable</tt>.
+	 */
+	public static PageInfo getPageInfo(int ppn) {
+		return frameTable.get(ppn);
+	}
 
-		PageInfo pageInfo = new PageInfo(vmProcess, vpn);
-		invertedPageTable.put(ppn, pageInfo);
+	public static void removePPageFromIPT(int ppn) {
+		frameTable.get(ppn).clear();
+		replacementPolicy.pageRemoved(ppn);
+	}
 
-		IPTLock.release();
+	public static void addPPageToIPT(int ppn, VMProcess vmProcess, int vpn) {
+		frameTable.get(ppn).assign(vmProcess, vpn);
+		replacementPolicy.pageLoaded(ppn);
 	}
 
-	public static void addPPageToIPT(int ppn, VMProcess vmProcess, int vpn, boolean pinned) {
-		IPTLock.acquire();
+	/**
+	 * Return the shared page cache entry of a read-only executable section:
+	 * the frame holding each page of the section, or -1 for a page that is not
+	 * resident. Every process running the same cached executable gets the
+	 * same array. It is kept by the executable's entry in the
+	 * <tt>CoffCache</tt>, so when the executable is evicted from the cache or
+	 * invalidated, processes that run it afterwards do not find the old
+	 * frames, and the array is dropped once the last process running the old
+	 * copy exits. The caller must hold <tt>pFExceptionLock</tt>, as for all
+	 * the shared page methods.
+	 * 
+	 * @param section the section.
+	 * @return the frames of the section's pages.
+	 */
+	public static int[] getSharedPages(CoffCache.Section section) {
+		return section.getResidentFrames();
+	}
 
-		PageInfo pageInfo = new PageInfo(vmProcess, vpn, pinned);
-		invertedPageTable.put(ppn, pageInfo);
+	/**
+	 * Offer a frame that was just loaded with a read-only executable page to
+	 * other processes. Its owner in the inverted page table is its first
+	 * sharer.
+	 * 
+	 * @param frames the section's entry, from <tt>getSharedPages()</tt>.
+	 * @param spn the page within the section.
+	 * @param ppn the frame.
+	 */
+	public static void addSharedPage(int[] frames, int spn, int ppn) {
+		PageInfo pageInfo = getPageInfo(ppn);
+		pageInfo.sharedFrames = frames;
+		pageInfo.sharedSpn = spn;
+		pageInfo.startSharing();
+		frames[spn] = ppn;
+	}
 
-		IPTLock.release();
+	/**
+	 * Add a process to the sharers of a frame, either one found through
+	 * <tt>getSharedPages()</tt> or one a forked child inherits.
+	 */
+	public static void addSharer(int ppn, VMProcess vmProcess) {
+		PageInfo pageInfo = getPageInfo(ppn);
+		if (pageInfo.sharers == null) {
+			pageInfo.startSharing();
+		}
+		pageInfo.sharers.add(vmProcess);
 	}
 
-	public static int getIPTSize() {
-		IPTLock.acquire();
+	/**
+	 * Drop a process from the sharers of a frame. When the last one leaves,
+	 * the frame is dropped from the cache and the inverted page table and
+	 * returned to the free list.
+	 */
+	public static void removeSharer(int ppn, VMProcess vmProcess) {
+		PageInfo pageInfo = getPageInfo(ppn);
+		pageInfo.sharers.remove(vmProcess);
+		if (pageInfo.sharers.isEmpty()) {
+			removeSharedPage(ppn);
+			removePPageFromIPT(ppn);
+			addFreePPage(ppn);
+			return;
+		}
+
+		if (pageInfo.getVMProcess() == vmProcess) {
+			pageInfo.setVMProcess(pageInfo.sharers.get(0));
+		}
+		// a copy-on-write page left with one process is private again
+		if (pageInfo.sharedFrames == null && pageInfo.sharers.size() == 1) {
+			pageInfo.sharers = null;
+		}
+	}
 
-		int IPTSize = invertedPageTable.size();
+	/**
+	 * Forget a shared frame that is being evicted. The caller unmaps it from
+	 * every sharer.
+	 */
+	public static void removeSharedPage(int ppn) {
+		PageInfo pageInfo = getPageInfo(ppn);
+		if (pageInfo.sharedFrames != null) {
+			pageInfo.sharedFrames[pageInfo.sharedSpn] = -1;
+		}
+	}
 
-		IPTLock.release();
-		return IPTSize;
+	public static int getIPTSize() {
+		return frameTable.getNumInUse();
 	}
 
 	public static void readSwapFile(int spn, byte[] data) {
+		readSwapFile(spn, data, 0, data.length);
+	}
+
+	/**
+	 * Read consecutive swap pages, starting at <i>spn</i>, in one read. A page
+	 * fault reads straight into <tt>Processor.getMemory()</tt>.
+	 */
+	public static void readSwapFile(int spn, byte[] data, int offset, int length) {
 		swapFileLock.acquire();
 
-		swapFile.read(spn * Processor.pageSize, data, 0, data.length);
+		swapFile.read(spn * Processor.pageSize, data, offset, length);
 
 		swapFileLock.release();
 	}
 
 	public static void writeSwapFile(int spn, byte[] data) {
+		writeSwapFile(spn, data, 0, data.length);
+	}
+
+	/**
+	 * Write consecutive swap pages, starting at <i>spn</i>, in one write.
+	 */
+	public static void writeSwapFile(int spn, byte[] data, int offset, int length) {
 		swapFileLock.acquire();
 
-		swapFile.write(spn * Processor.pageSize, data, 0, data.length);
+		swapFile.write(spn * Processor.pageSize, data, offset, length);
 
 		swapFileLock.release();
 	}
@@ -196,46 +388,70 @@ public class VMKernel extends UserKernel {
 		return swapFile;
 	}
 
-	public static int getVictimPage() {
-		victimLock.acquire();
+	/**
+	 * Reserve the right to pin up to <i>count</i> frames, waiting until at
+	 * least one pin is free. Every pin is taken under a reservation, and no
+	 * more than <tt>maxPins</tt> are reserved at once, so at least one frame
+	 * is always unpinned and a page fault never has to wait for a pin to be
+	 * dropped. The caller must not hold <tt>pinLock</tt> or any pins, and must
+	 * give the reservation back with <tt>releasePins()</tt>.
+	 * 
+	 * @param count the number of pins wanted.
+	 * @return the number of pins reserved, between 1 and <i>count</i>.
+	 */
+	public static int reservePins(int count) {
+		Lib.assertTrue(count > 0);
 
-		int victim = victimPage;
+		pinLock.acquire();
 
-		victimLock.release();
-		return victim;
+		while (reservedPins == maxPins) {
+			pinsAvailable.sleep();
+		}
+		int reserved = Math.min(count, maxPins - reservedPins);
+		reservedPins += reserved;
+
+		pinLock.release();
+		return reserved;
 	}
 
-	public static void updateVictimPage() {
-		victimLock.acquire();
+	/**
+	 * Give back pins reserved with <tt>reservePins()</tt>, once the frames
+	 * pinned under them have been unpinned.
+	 */
+	public static void releasePins(int count) {
+		pinLock.acquire();
 
-		victimPage = (++victimPage) % Machine.processor().getNumPhysPages();
+		Lib.assertTrue(count >= 0 && count <= reservedPins);
+		reservedPins -= count;
+		pinsAvailable.wakeAll();
 
-		victimLock.release();
+		pinLock.release();
 	}
 
+	/**
+	 * Keep a frame from being evicted. A frame may be pinned by several
+	 * transfers at once; <tt>pinCount</tt> counts the frames with at least
+	 * one pin. The caller must hold a reservation from
+	 * <tt>reservePins()</tt>.
+	 */
 	public static void pinPage(int ppn) {
-		Lib.assertTrue(pinCount < Machine.processor().getNumPhysPages());
-		// pinLock.acquire();
-
-		getPageInfo(ppn).pinned = true;
-		++pinCount;
-
-		// pinLock.release();
+		PageInfo pageInfo = getPageInfo(ppn);
+		if (pageInfo.pinCount++ == 0) {
+			Lib.assertTrue(pinCount < frameTable.getNumFrames());
+			++pinCount;
+		}
 	}
 
 	public static void unpinPage(int ppn) {
-		// VMKernel.pageReplacementLock.acquire();
 		pinLock.acquire();
 
-		int oldPinCount = pinCount;
-		getPageInfo(ppn).pinned = false;
-		--pinCount;
-		if (Machine.processor().getNumPhysPages() == oldPinCount) {
-			VMKernel.fullPinCV.wakeAll();
+		PageInfo pageInfo = getPageInfo(ppn);
+		Lib.assertTrue(pageInfo.isPinned());
+		if (--pageInfo.pinCount == 0) {
+			--pinCount;
 		}
 
 		pinLock.release();
-		// VMKernel.pageReplacementLock.release();
 	}
 
 	// dummy variables to make javac smarter
@@ -249,26 +465,56 @@ public class VMKernel extends UserKernel {
 
 	private static int swapFileCount;
 
-	private static LinkedList<Integer> freeSwapPages;
+	/** A stack of free swap pages; the first numFreeSwapPages are in use. */
+	private static int[] freeSwapPages;
+
+	private static int numFreeSwapPages;
+
+	/** The number of processes referring to each swap page, 0 if it is free. */
+	private static int[] swapPageRefs;
+
+	/** The inverted page table, indexed by ppn. */
+	private static FrameTable frameTable;
+
+	/** Evicts pages ahead of demand, or <tt>null</tt> if it is disabled. */
+	static PageOutDaemon pageOutDaemon = null;
+
+	/** Dirty pages evicted by a page fault, written before the fault returns. */
+	static SwapBatch evictionBatch;
 
-	private static Map<Integer, PageInfo> invertedPageTable;
+	/**
+	 * The number of pages a fault brings in, counting the faulting page, and
+	 * the most it can grow to for sequential access; see
+	 * <tt>VMProcess.faultAround()</tt>.
+	 */
+	public static int faultAroundPages, maxPrefetchPages;
+
+	/** Scratch space for fault-around, used with pFExceptionLock held. */
+	static byte[] prefetchBuffer;
+
+	static int[] prefetchPPNs;
 
-	private static int victimPage;
+	/** Chooses the frames to evict; see <tt>ReplacementPolicy</tt>. */
+	public static ReplacementPolicy replacementPolicy;
 
+	/** The number of frames that are pinned. */
 	public static int pinCount;
 
-	private static Lock IPTLock;
+	/**
+	 * The pins reserved by <tt>reservePins()</tt>, and the most that may be
+	 * reserved at once: one fewer than the number of frames.
+	 */
+	static int reservedPins, maxPins;
 
 	private static Lock freeSwapPageLock;
 
 	private static Lock swapFileLock;
 
-	private static Lock victimLock;
-
 	public static Lock pinLock;
 
 	public static Lock pFExceptionLock;
 
-	public static Condition fullPinCV;
+	/** Signalled when reserved pins are given back. */
+	private static Condition pinsAvailable;
 
 }
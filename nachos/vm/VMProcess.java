@@ -1,6 +1,9 @@
 package nachos.vm;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.Map;
 
 import nachos.machine.*;
@@ -53,49 +56,155 @@ public class VMProcess extends UserProcess {
 	}
 
 	private boolean init() {
+		// untouched pages all share one invalid entry; a page gets its own
+		// entry, and a frame, the first time it is faulted in
 		pageTable = new TranslationEntry[numPages];
+		Arrays.fill(pageTable, untouched);
 		spnArr = new int[numPages];
-		for (int i = 0; i < numPages; i++) {
-			int pPageNum = -1;
-			pageTable[i] = new TranslationEntry(i, pPageNum, false, false, false, false);
-			spnArr[i] = -1;
+		Arrays.fill(spnArr, -1);
+		mapArr = new MemoryMap[numPages];
+		cowArr = new boolean[numPages];
+		maps = new LinkedList<MemoryMap>();
+
+		// classify every page once, so that a fault needs no search
+		int coffPages = numPages - stackPages - 1;
+		pageKinds = new PageKind[numPages];
+		pageSections = new int[numPages];
+		sharedFrames = new int[coff.getNumSections()][];
+		VMKernel.pFExceptionLock.acquire();
+		for (int s = 0; s < coff.getNumSections(); s++) {
+			CoffCache.Section section = coff.getSection(s);
+			PageKind kind = section.isExecutable() ? PageKind.TEXT
+					: section.isInitialzed() ? PageKind.DATA : PageKind.BSS;
+			Lib.assertTrue(section.getLength() <= spnMask + 1);
+			for (int i = 0; i < section.getLength(); i++) {
+				pageKinds[section.getFirstVPN() + i] = kind;
+				pageSections[section.getFirstVPN() + i] = (s << sectionShift) | i;
+			}
+			if (section.isReadOnly()) {
+				sharedFrames[s] = VMKernel.getSharedPages(section);
+			}
 		}
+		VMKernel.pFExceptionLock.release();
+		Arrays.fill(pageKinds, coffPages, numPages - 1, PageKind.STACK);
+		pageKinds[numPages - 1] = PageKind.ARGS;
+		Arrays.fill(pageSections, coffPages, numPages, -1);
 		return true;
 	}
 
 	/**
-	 * Release any resources allocated by <tt>loadSections()</tt>.
+	 * Grow the per-page tables so that they cover <i>newLength</i> pages. The
+	 * new pages are invalid and belong to no mapping until one is set up.
 	 */
-	protected void unloadSections() {
-		VMKernel.pFExceptionLock.acquire();
+	private void growPageTable(int newLength) {
+		int oldLength = pageTable.length;
+		if (newLength <= oldLength) {
+			return;
+		}
 
-		Lib.debug(dbgProcess, "unloadSections in VMProcessor");
-		int pageTableSize = pageTable.length;
-		for (int i = 0; i < pageTableSize; i++) {
-			if (pageTable[i].valid && -1 != pageTable[i].ppn) {
+		TranslationEntry[] newPageTable = new TranslationEntry[newLength];
+		int[] newSpnArr = new int[newLength];
+		MemoryMap[] newMapArr = new MemoryMap[newLength];
+		boolean[] newCowArr = new boolean[newLength];
+		System.arraycopy(pageTable, 0, newPageTable, 0, oldLength);
+		System.arraycopy(spnArr, 0, newSpnArr, 0, oldLength);
+		System.arraycopy(mapArr, 0, newMapArr, 0, oldLength);
+		System.arraycopy(cowArr, 0, newCowArr, 0, oldLength);
+		Arrays.fill(newPageTable, oldLength, newLength, untouched);
+		Arrays.fill(newSpnArr, oldLength, newLength, -1);
+
+		pageTable = newPageTable;
+		spnArr = newSpnArr;
+		mapArr = newMapArr;
+		cowArr = newCowArr;
+		Machine.processor().setPageTable(pageTable);
+	}
+
+	/**
+	 * Test if a virtual page belongs to this process: either the program,
+	 * its stack and arguments, the heap, or a mapped file.
+	 */
+	protected boolean inAddressSpace(int vpn) {
+		return vpn >= 0 && (vpn < getHeapEndVPN() || (vpn < mapArr.length && mapArr[vpn] != null));
+	}
+
+	/**
+	 * Grow or shrink the heap. New heap pages cost nothing until they are
+	 * touched, and are then zero-filled on demand. Pages given back lose
+	 * their frames and swap pages.
+	 */
+	protected boolean resizeHeap(int newEndVPN) {
+		int oldEndVPN = getHeapEndVPN();
+		if (newEndVPN > maxVirtualPages) {
+			return false;
+		}
 
-				UserKernel.addFreePPage(pageTable[i].ppn);
-				VMKernel.removePPageFromIPT(pageTable[i].ppn);
+		VMKernel.pinLock.acquire();
+		VMKernel.pFExceptionLock.acquire();
+
+		for (int vpn = oldEndVPN; vpn < newEndVPN && vpn < mapArr.length; vpn++) {
+			if (mapArr[vpn] != null) {
+				VMKernel.pFExceptionLock.release();
+				VMKernel.pinLock.release();
+				return false;
 			}
+		}
+
+		growPageTable(newEndVPN);
+		for (int vpn = newEndVPN; vpn < oldEndVPN; vpn++) {
+			releasePage(vpn);
+		}
+
+		VMKernel.pFExceptionLock.release();
+		VMKernel.pinLock.release();
+		return true;
+	}
 
-			if (-1 != spnArr[i]) {
-				VMKernel.addFreeSwapPage(spnArr[i]);
+	/**
+	 * Give back the frame and swap page of a virtual page, leaving it
+	 * untouched. The caller must hold <tt>VMKernel.pFExceptionLock</tt>.
+	 */
+	private void releasePage(int vpn) {
+		if (pageTable[vpn].valid && -1 != pageTable[vpn].ppn) {
+			if (VMKernel.getPageInfo(pageTable[vpn].ppn).isShared()) {
+				VMKernel.removeSharer(pageTable[vpn].ppn, this);
+			} else {
+				UserKernel.addFreePPage(pageTable[vpn].ppn);
+				VMKernel.removePPageFromIPT(pageTable[vpn].ppn);
 			}
+		}
+		if (-1 != spnArr[vpn]) {
+			VMKernel.releaseSwapPage(spnArr[vpn]);
+			spnArr[vpn] = -1;
+		}
+		pageTable[vpn] = untouched;
+		cowArr[vpn] = false;
+	}
+
+	/**
+	 * Release any resources allocated by <tt>loadSections()</tt>.
+	 */
+	protected void unloadSections() {
+		VMKernel.pFExceptionLock.acquire();
 
+		Lib.debug(dbgProcess, "unloadSections in VMProcessor");
+
+		// mapped files get their dirty pages back before the frames are freed
+		while (!maps.isEmpty()) {
+			unmap(maps.getFirst());
 		}
 
-		// // close all opened files
-		// VMKernel.getSwapFile().close();
-		// for (Iterator<Map.Entry<Integer, OpenFile>> it = fdMap.entrySet().iterator();
-		// it.hasNext();) {
-		// Map.Entry<Integer, OpenFile> entry = it.next();
-		// handleClose(entry.getKey());
-		// }
+		for (int i = 0; i < pageTable.length; i++) {
+			releasePage(i);
+		}
 
 		Lib.debug(dbgProcess, "finish unloadSections in VMProcessor");
-		// super.unloadSections();
 
 		VMKernel.pFExceptionLock.release();
+
+		// the frames were not taken from the frame allocator as a batch, so
+		// super.unloadSections() is not called; close the files here instead
+		closeAllFiles();
 	}
 
 	/**
@@ -111,9 +220,23 @@ public class VMProcess extends UserProcess {
 		switch (cause) {
 			case Processor.exceptionPageFault:
 				int faultingVAddr = processor.readRegister(Processor.regBadVAddr);
+				if (!inAddressSpace(Processor.pageFromAddress(faultingVAddr))) {
+					Lib.debug(dbgProcess, "page fault outside the address space");
+					super.handleException(cause);
+					break;
+				}
 				handlePageFaultException(faultingVAddr, false);
 				break;
 
+			case Processor.exceptionReadOnly:
+				int writtenVPN = Processor.pageFromAddress(processor.readRegister(Processor.regBadVAddr));
+				if (!inAddressSpace(writtenVPN) || !cowArr[writtenVPN]) {
+					super.handleException(cause);
+					break;
+				}
+				handleCopyOnWrite(writtenVPN);
+				break;
+
 			default:
 				Lib.debug(dbgProcess, "handle default exception in VMProcessor");
 				super.handleException(cause);
@@ -153,19 +276,24 @@ public class VMProcess extends UserProcess {
 		// Evict a page to free up a page frame
 		// Load the required page into the freed page frame
 
-		Lib.debug(dbgProcess, "in handlePageFaultException, PID:" + this.getPID());
 		if (!isReadWrite) {
 			VMKernel.pinLock.acquire();
 		}
 		VMKernel.pFExceptionLock.acquire();
+		VMKernel.replacementPolicy.pageFaulted();
 
 		boolean isInSwapFile = checkSwapFile(faultingVAddr);
-		if (isInSwapFile) {
+		if (mapArr[Processor.pageFromAddress(faultingVAddr)] != null) {
+			Lib.debug(dbgProcess, "is In a mapped file");
+			loadFromMap(faultingVAddr);
+		} else if (isInSwapFile) {
 			Lib.debug(dbgProcess, "is In SwapFile");
 			loadFromSwapFile(faultingVAddr);
+			faultAround(Processor.pageFromAddress(faultingVAddr));
 		} else {
 			Lib.debug(dbgProcess, "is not In SwapFile");
 			handleFaultingPage(faultingVAddr);
+			faultAround(Processor.pageFromAddress(faultingVAddr));
 		}
 
 		VMKernel.pFExceptionLock.release();
@@ -183,191 +311,369 @@ public class VMProcess extends UserProcess {
 		return false;
 	}
 
+	// The swap page is read straight into the frame. It is kept, so a clean
+	// page can be evicted again without being written.
 	protected void loadFromSwapFile(int faultingVAddr) {
-		Lib.debug(dbgProcess, "is in loadFromSwapFile");
 		int faultingVPN = Processor.pageFromAddress(faultingVAddr);
-		byte[] data = new byte[pageSize];
 		int spn = spnArr[faultingVPN];
+		int ppn = findPPN(faultingVPN);
 
-		// VMKernel.pFExceptionLock.acquire();
+		VMKernel.readSwapFile(spn, Machine.processor().getMemory(), ppn * pageSize, pageSize);
+		mapPage(faultingVPN, ppn, false, false);
+		VMKernel.addPPageToIPT(ppn, this, faultingVPN);
+	}
 
-		Lib.debug(dbgProcess, "pageTable[faultingVPN].dirty: " + pageTable[faultingVPN].dirty);
-		pageTable[faultingVPN] = new TranslationEntry(faultingVPN, findPPN(faultingVPN), true, false,
-				false,
-				false);
+	// Point a page at a frame. The page's entry is updated in place, so that a
+	// page faulting in and out allocates nothing; only a page that still has
+	// the shared untouched entry is given an entry of its own, once.
+	private void mapPage(int vpn, int ppn, boolean readOnly, boolean dirty) {
+		TranslationEntry entry = pageTable[vpn];
+		if (entry == untouched) {
+			entry = new TranslationEntry();
+			pageTable[vpn] = entry;
+		}
+		entry.vpn = vpn;
+		entry.ppn = ppn;
+		entry.valid = true;
+		entry.readOnly = readOnly;
+		entry.used = false;
+		entry.dirty = dirty;
+	}
 
-		Lib.debug(dbgProcess, "don't release the swap page: " + spn);
+	// Mapped pages come straight from the file into the frame and never go to
+	// the swap file; the tail of the last page past the end of file is zeroed.
+	protected void loadFromMap(int faultingVAddr) {
+		int faultingVPN = Processor.pageFromAddress(faultingVAddr);
+		MemoryMap map = mapArr[faultingVPN];
 
-		VMKernel.readSwapFile(spn, data);
-		// VMKernel.addFreeSwapPage(spn);
+		mapPage(faultingVPN, findPPN(faultingVPN), false, false);
 
-		writePhysicalMemory(faultingVPN, data);
-		Lib.debug(dbgProcess, "finish loadFromSwapFile");
-		// VMKernel.pFExceptionLock.release();
+		byte[] memory = Machine.processor().getMemory();
+		int paddr = pageTable[faultingVPN].ppn * pageSize;
+		int amount = map.file.read(map.fileOffset(faultingVPN), memory, paddr, map.pageLength(faultingVPN));
+		Arrays.fill(memory, paddr + Math.max(amount, 0), paddr + pageSize, (byte) 0);
 
+		VMKernel.addPPageToIPT(pageTable[faultingVPN].ppn, this, faultingVPN);
 	}
 
-	protected String isCoffOrStackPage(int faultingVPN) {
-		if (faultingVPN >= numPages - 1 - stackPages && faultingVPN <= numPages - 1) {
-			return "stack or arg";
-		} else {
-			return "coff";
-		}
+	// Write a resident dirty mapped page back to its file.
+	private void writeBackMappedPage(int vpn) {
+		MemoryMap map = mapArr[vpn];
+		int paddr = pageTable[vpn].ppn * pageSize;
+		map.file.write(map.fileOffset(vpn), Machine.processor().getMemory(), paddr, map.pageLength(vpn));
+		pageTable[vpn].dirty = false;
+	}
+
+	/**
+	 * Return what a page of the address space holds. Pages past the arguments
+	 * are heap.
+	 */
+	protected PageKind pageKind(int vpn) {
+		return (vpn >= numPages) ? PageKind.HEAP : pageKinds[vpn];
+	}
+
+	// Test if a page is loaded from the executable.
+	private static boolean isCoffPage(PageKind kind) {
+		return kind == PageKind.TEXT || kind == PageKind.DATA || kind == PageKind.BSS;
 	}
 
 	protected void handleFaultingPage(int faultingVAddr) {
-		Lib.debug(dbgProcess, "is In handleFaultingPage");
 		int faultingVPN = Processor.pageFromAddress(faultingVAddr);
-		String faultingPageType = isCoffOrStackPage(faultingVPN);
-		byte[] data = new byte[pageSize];
-
-		boolean foundSection = false;
-
-		// VMKernel.pFExceptionLock.acquire();
-
-		if (faultingPageType.equals("coff")) {
-			Lib.debug(dbgProcess, "is coff");
-			// load sections
-			for (int s = 0; s < coff.getNumSections(); s++) {
-				CoffSection section = coff.getSection(s);
-
-				Lib.debug(dbgProcess, "\tinitializing " + section.getName()
-						+ " in handlePageFaultException. section (" + section.getLength() + " pages)");
-
-				for (int i = 0; i < section.getLength(); i++) {
-					int vpn = section.getFirstVPN() + i;
-					Lib.debug(dbgProcess, "vpn: " + vpn + ", faultingVPN = " + faultingVPN);
-					if (vpn != faultingVPN) {
-						continue;
-					}
-					Lib.debug(dbgProcess, "found section");
-					foundSection = true;
-					Lib.debug(dbgProcess, "pageTable[faultingVPN].dirty: " + pageTable[faultingVPN].dirty);
-					pageTable[faultingVPN] = new TranslationEntry(pageTable[faultingVPN].vpn, findPPN(faultingVPN),
-							true,
-							section.isReadOnly(),
-							false,
-							pageTable[faultingVPN].dirty);
-
-					section.loadPage(i, pageTable[faultingVPN].ppn);
-					VMKernel.addPPageToIPT(pageTable[faultingVPN].ppn, this, faultingVPN);
-
-					break;
-				}
+		PageKind kind = pageKind(faultingVPN);
+
+		if (isCoffPage(kind)) {
+			int s = pageSections[faultingVPN] >>> sectionShift;
+			int spn = pageSections[faultingVPN] & spnMask;
+			CoffCache.Section section = coff.getSection(s);
+
+			// another process running this program may already have the page
+			// in memory
+			int[] shared = sharedFrames[s];
+			if (shared != null && shared[spn] != -1) {
+				mapPage(faultingVPN, shared[spn], true, false);
+				VMKernel.addSharer(shared[spn], this);
+				return;
+			}
 
-				if (foundSection) {
-					break;
-				}
+			int ppn = findPPN(faultingVPN);
+			section.loadPage(spn, ppn);
+			mapPage(faultingVPN, ppn, section.isReadOnly(), pageTable[faultingVPN].dirty);
+			VMKernel.addPPageToIPT(ppn, this, faultingVPN);
+			if (shared != null) {
+				VMKernel.addSharedPage(shared, spn, ppn);
 			}
-		} else if (faultingPageType.equals("stack or arg")) {
-			Lib.debug(dbgProcess, "is stack or arg, faultingVPN = " + faultingVPN);
-			// zero-fill it: set every byte on the page to the value 0
-			Lib.debug(dbgProcess, "pageTable[faultingVPN].dirty: " + pageTable[faultingVPN].dirty);
-			pageTable[faultingVPN] = new TranslationEntry(pageTable[faultingVPN].vpn, findPPN(faultingVPN), true,
-					pageTable[faultingVPN].readOnly,
-					false, pageTable[faultingVPN].dirty);
-			writePhysicalMemory(faultingVPN, data);
+		} else {
+			// stack, argument and heap pages are zero-filled on demand, in
+			// place in the frame
+			int ppn = findPPN(faultingVPN);
+			Arrays.fill(Machine.processor().getMemory(), ppn * pageSize, (ppn + 1) * pageSize, (byte) 0);
+			mapPage(faultingVPN, ppn, pageTable[faultingVPN].readOnly, pageTable[faultingVPN].dirty);
+			VMKernel.addPPageToIPT(ppn, this, faultingVPN);
+		}
+	}
 
-			Lib.debug(dbgProcess, "finish stack");
+	/*
+	 * Fault-around: after a fault, bring in the pages that follow the faulting
+	 * page if they are cheap to get, so that a process running or sweeping
+	 * through its memory does not fault on every page.
+	 * 1. A read-only executable page another process has in memory is just
+	 * mapped.
+	 * 2. A run of executable pages of the same section is read with one read of
+	 * the executable.
+	 * 3. A run of pages stored in consecutive swap pages is read with one read
+	 * of the swap file.
+	 * The window starts at VMKernel.faultAroundPages. When a fault lands just
+	 * past the pages brought in by the previous one, the access looks
+	 * sequential and the window doubles, up to VMKernel.maxPrefetchPages; any
+	 * other fault resets it. Only frames above the low watermark are used, so
+	 * prefetching never evicts a page, and prefetched pages are left unused so
+	 * they are the first to go if they turn out not to be needed.
+	 */
+	protected void faultAround(int faultingVPN) {
+		if (faultingVPN == nextSequentialVPN) {
+			faultAroundWindow = Math.min(faultAroundWindow * 2, VMKernel.maxPrefetchPages);
+		} else {
+			faultAroundWindow = VMKernel.faultAroundPages;
 		}
 
-		// VMKernel.pFExceptionLock.release();
+		int end = Math.min(faultingVPN + faultAroundWindow, pageTable.length);
+		int vpn = faultingVPN + 1;
+		while (vpn < end && !pageTable[vpn].valid && mapArr[vpn] == null) {
+			int count;
+			if (-1 != spnArr[vpn]) {
+				count = prefetchFromSwapFile(vpn, end);
+			} else {
+				count = prefetchFromCoff(vpn, end);
+			}
+			if (count == 0) {
+				break;
+			}
+			vpn += count;
+		}
+		nextSequentialVPN = vpn;
+	}
 
+	// Say whether a frame can be taken for prefetching.
+	private static boolean canPrefetch() {
+		return UserKernel.frameAllocator.getNumFree() > UserKernel.frameAllocator.getLowWatermark();
 	}
 
-	protected void readPhysicalMemory(int ppn, byte[] data) {
-		// byte[] memory = Machine.processor().getMemory();
-		int pos = ppn * pageSize;
-		System.arraycopy(Machine.processor().getMemory(), pos, data, 0, pageSize);
-		Lib.debug(dbgProcess, "in read Physical memory. Pos = " + pos);
+	// Read the pages from vpn on that are in consecutive swap pages, stopping
+	// before end. Returns the number of pages read.
+	private int prefetchFromSwapFile(int vpn, int end) {
+		int spn = spnArr[vpn];
+		int[] ppns = VMKernel.prefetchPPNs;
+		int count = 0;
+		while (vpn + count < end && !pageTable[vpn + count].valid && mapArr[vpn + count] == null
+				&& spnArr[vpn + count] == spn + count && canPrefetch()) {
+			ppns[count++] = UserKernel.getFreePPage();
+		}
+		if (count == 0) {
+			return 0;
+		}
+
+		byte[] buffer = VMKernel.prefetchBuffer;
+		VMKernel.readSwapFile(spn, buffer, 0, count * pageSize);
+		byte[] memory = Machine.processor().getMemory();
+		for (int i = 0; i < count; i++) {
+			System.arraycopy(buffer, i * pageSize, memory, ppns[i] * pageSize, pageSize);
+			mapPage(vpn + i, ppns[i], false, false);
+			VMKernel.addPPageToIPT(ppns[i], this, vpn + i);
+		}
+
+		if (Lib.test(dbgVM)) {
+			Lib.debug(dbgVM, "prefetched " + count + " swap pages at vpn " + vpn);
+		}
+		return count;
 	}
 
-	protected void writePhysicalMemory(int vpn, byte[] data) {
-		// Lib.debug(dbgProcess, "in writePhysicalMemory, is pinned? " +
-		// VMKernel.getPageInfo(pageTable[vpn].ppn).pinned);
-		// byte[] memory = Machine.processor().getMemory();
-		int pos = pageTable[vpn].ppn * pageSize;
-		System.arraycopy(data, 0, Machine.processor().getMemory(), pos, pageSize);
-		VMKernel.addPPageToIPT(pageTable[vpn].ppn, this, vpn);
-		Lib.debug(dbgProcess, "pageTable[vpn].dirty: " + pageTable[vpn].dirty);
+	// Bring in the executable pages from vpn on that belong to the same
+	// section, stopping before end. Returns the number of pages brought in.
+	private int prefetchFromCoff(int vpn, int end) {
+		if (!isCoffPage(pageKind(vpn))) {
+			return 0;
+		}
+		int s = pageSections[vpn] >>> sectionShift;
+		int firstSpn = pageSections[vpn] & spnMask;
+		CoffCache.Section section = coff.getSection(s);
+		end = Math.min(end, section.getFirstVPN() + section.getLength());
+
+		int[] shared = sharedFrames[s];
+		if (shared != null && shared[firstSpn] != -1) {
+			mapPage(vpn, shared[firstSpn], true, false);
+			VMKernel.addSharer(shared[firstSpn], this);
+			return 1;
+		}
+
+		int[] ppns = VMKernel.prefetchPPNs;
+		int count = 0;
+		while (vpn + count < end && !pageTable[vpn + count].valid && -1 == spnArr[vpn + count]
+				&& canPrefetch()) {
+			// stop at a page that can be shared instead
+			if (shared != null && shared[firstSpn + count] != -1) {
+				break;
+			}
+			ppns[count++] = UserKernel.getFreePPage();
+		}
+		if (count == 0) {
+			return 0;
+		}
+
+		section.loadPages(firstSpn, count, ppns, VMKernel.prefetchBuffer);
+		for (int i = 0; i < count; i++) {
+			mapPage(vpn + i, ppns[i], section.isReadOnly(), false);
+			VMKernel.addPPageToIPT(ppns[i], this, vpn + i);
+			if (shared != null) {
+				VMKernel.addSharedPage(shared, firstSpn + i, ppns[i]);
+			}
+		}
+
+		if (Lib.test(dbgVM)) {
+			Lib.debug(dbgVM, "prefetched " + count + " pages of " + section.getName() + " at vpn " + vpn);
+		}
+		return count;
 	}
 
 	protected int findPPN(int vpn) {
 		int ppn = UserKernel.getFreePPage();
-		Lib.debug(dbgProcess, "ppn: " + ppn);
 		if (ppn == -1) {
 			// no free page frames are available - Page replacement
 			ppn = pageReplacement();
-			Lib.debug(dbgProcess, "new ppn: " + ppn);
+		}
+		if (VMKernel.pageOutDaemon != null) {
+			VMKernel.pageOutDaemon.frameAllocated();
 		}
 
 		return ppn;
 	}
 
 	protected int pageReplacement() {
-		Lib.debug(dbgProcess, "is in page replacement, pinCount = " + VMKernel.pinCount);
-
-		while (VMKernel.pinCount >= Machine.processor().getNumPhysPages()) {
-			VMKernel.fullPinCV.sleep();
-		}
+		// pins are reserved so that one frame is always left unpinned
+		Lib.assertTrue(VMKernel.pinCount < Machine.processor().getNumPhysPages());
 
 		int victimPage = chooseVictimPage();
-		eviction(victimPage);
+		eviction(victimPage, VMKernel.evictionBatch);
+		VMKernel.evictionBatch.flush();
 
 		return victimPage;
 	}
 
-	// "Clock Algorithm" aka "second chance page replacement algorithm"
-	// https://www.geeksforgeeks.org/second-chance-or-clock-page-replacement-policy/
 	protected int chooseVictimPage() {
-		Lib.debug(dbgProcess, "is in choose victim page");
-		VMProcess victimProcess = VMKernel.getPageInfo(VMKernel.getVictimPage()).getVMProcess();
-		int victimVpn = VMKernel.getPageInfo(VMKernel.getVictimPage()).getVpn();
-		Lib.debug(dbgProcess, "victimPage in VMKernel: " + VMKernel.getVictimPage());
-		while (victimProcess.pageTable[victimVpn].used || VMKernel.getPageInfo(VMKernel.getVictimPage()).pinned) {
-			victimProcess.pageTable[victimVpn].used = false;
-			VMKernel.updateVictimPage();
-			victimProcess = VMKernel.getPageInfo(VMKernel.getVictimPage()).getVMProcess();
-			victimVpn = VMKernel.getPageInfo(VMKernel.getVictimPage()).getVpn();
-			Lib.debug(dbgProcess, "victimPage in VMKernel: " + VMKernel.getVictimPage() + " "
-					+ victimProcess.pageTable[victimVpn].used);
-		}
-		int victim = VMKernel.getVictimPage();
-		Lib.debug(dbgProcess, "victim: " + victim);
-		VMKernel.updateVictimPage();
-		return victim;
-	}
-
-	protected void eviction(int victimPage) {
-		Lib.debug(dbgProcess, "is in eviction. victim page is " + victimPage);
-		byte[] data = new byte[pageSize];
-		VMProcess victimProcess = VMKernel.getPageInfo(victimPage).getVMProcess();
-		int victimVpn = VMKernel.getPageInfo(victimPage).getVpn();
-		Lib.debug(dbgProcess, "victim vpn is " + victimVpn);
-		Lib.debug(dbgProcess, "victimProcess.pageTable[victimVpn].dirty: " + victimProcess.pageTable[victimVpn].dirty);
-		// if (victimProcess.pageTable[victimVpn].dirty &&
-		// !victimProcess.pageTable[victimVpn].readOnly) {
-		if (victimProcess.pageTable[victimVpn].dirty && !victimProcess.pageTable[victimVpn].readOnly) {
+		return VMKernel.replacementPolicy.chooseVictim();
+	}
+
+	// Clear the used bit of a frame and say whether it was set. A shared frame
+	// has been used if any of its sharers used it.
+	static boolean clearUsed(VMKernel.PageInfo pageInfo) {
+		int vpn = pageInfo.getVpn();
+		if (!pageInfo.isShared()) {
+			boolean used = pageInfo.getVMProcess().pageTable[vpn].used;
+			pageInfo.getVMProcess().pageTable[vpn].used = false;
+			return used;
+		}
+
+		boolean used = false;
+		ArrayList<VMProcess> sharers = pageInfo.getSharers();
+		for (int i = 0; i < sharers.size(); i++) {
+			used |= sharers.get(i).pageTable[vpn].used;
+			sharers.get(i).pageTable[vpn].used = false;
+		}
+		return used;
+	}
+
+	// Say whether evicting a frame would have to write it back. A copy-on-write
+	// page is read-only but may still be dirty.
+	static boolean isDirty(VMKernel.PageInfo pageInfo) {
+		int vpn = pageInfo.getVpn();
+		if (!pageInfo.isShared()) {
+			VMProcess owner = pageInfo.getVMProcess();
+			return owner.pageTable[vpn].dirty && (!owner.pageTable[vpn].readOnly || owner.cowArr[vpn]);
+		}
+
+		ArrayList<VMProcess> sharers = pageInfo.getSharers();
+		for (int i = 0; i < sharers.size(); i++) {
+			if (sharers.get(i).pageTable[vpn].dirty) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	// Unmap a frame from the processes using it. A dirty page is copied into
+	// the batch, which the caller must flush before releasing pFExceptionLock.
+	protected void eviction(int victimPage, SwapBatch batch) {
+		VMKernel.PageInfo pageInfo = VMKernel.getPageInfo(victimPage);
+		if (pageInfo.isShared()) {
+			evictShared(victimPage, pageInfo, batch);
+			return;
+		}
+
+		VMProcess victimProcess = pageInfo.getVMProcess();
+		int victimVpn = pageInfo.getVpn();
+		boolean dirty = isDirty(pageInfo);
+		if (dirty) {
 			Lib.debug(dbgProcess, "evicted page is dirty");
-			readPhysicalMemory(victimPage, data);
-			swapOut(data, victimProcess, victimVpn);
+			if (victimProcess.mapArr[victimVpn] != null) {
+				victimProcess.writeBackMappedPage(victimVpn);
+			} else {
+				swapOut(batch, victimPage, victimProcess, victimVpn);
+			}
 		}
 
 		victimProcess.pageTable[victimVpn].ppn = -1;
 		victimProcess.pageTable[victimVpn].valid = false;
 		victimProcess.pageTable[victimVpn].used = false;
 		VMKernel.removePPageFromIPT(victimPage);
+		VMKernel.replacementPolicy.pageEvicted(dirty);
+	}
+
+	// Unmap a frame from all the processes sharing it. A read-only executable
+	// page is simply dropped; a copy-on-write page that any of them has dirtied
+	// goes to one swap page that they all refer to.
+	private void evictShared(int victimPage, VMKernel.PageInfo pageInfo, SwapBatch batch) {
+		int vpn = pageInfo.getVpn();
+		VMKernel.removeSharedPage(victimPage);
+
+		ArrayList<VMProcess> sharers = pageInfo.getSharers();
+		boolean dirty = isDirty(pageInfo);
+		if (dirty) {
+			int spn = VMKernel.getFreeSwapPage();
+			batch.add(spn, victimPage);
+			for (int i = 0; i < sharers.size(); i++) {
+				VMProcess sharer = sharers.get(i);
+				if (-1 != sharer.spnArr[vpn]) {
+					VMKernel.releaseSwapPage(sharer.spnArr[vpn]);
+				}
+				if (i > 0) {
+					VMKernel.shareSwapPage(spn);
+				}
+				sharer.spnArr[vpn] = spn;
+			}
+		}
+
+		for (int i = 0; i < sharers.size(); i++) {
+			VMProcess sharer = sharers.get(i);
+			sharer.pageTable[vpn].ppn = -1;
+			sharer.pageTable[vpn].valid = false;
+			sharer.pageTable[vpn].used = false;
+		}
+		VMKernel.removePPageFromIPT(victimPage);
+		VMKernel.replacementPolicy.pageEvicted(dirty);
 	}
 
-	protected void swapOut(byte[] data, VMProcess victimProcess, int victimVpn) {
+	protected void swapOut(SwapBatch batch, int victimPage, VMProcess victimProcess, int victimVpn) {
 		Lib.debug(dbgProcess, "is in swapOut");
 		int spn = victimProcess.spnArr[victimVpn];
+		// a swap page inherited through fork still holds the other process's copy
+		if (-1 != spn && VMKernel.isSwapPageShared(spn)) {
+			VMKernel.releaseSwapPage(spn);
+			spn = -1;
+		}
 		if (-1 == spn) {
 			spn = VMKernel.getFreeSwapPage();
 			victimProcess.spnArr[victimVpn] = spn;
 		}
-		VMKernel.writeSwapFile(spn, data);
-		Lib.debug(dbgProcess, "victimProcess.pageTable[victimVpn].dirty: " + victimProcess.pageTable[victimVpn].dirty);
+		batch.add(spn, victimPage);
 	}
 
 	/**
@@ -412,7 +718,7 @@ public class VMProcess extends UserProcess {
 		Lib.assertTrue(offset >= 0 && length >= 0
 				&& offset + length <= data.length);
 
-		if (vaddr < 0 || vaddr >= numPages * pageSize || length == 0) {
+		if (vaddr < 0 || !inAddressSpace(Processor.pageFromAddress(vaddr)) || length == 0) {
 			return 0;
 		}
 
@@ -420,32 +726,12 @@ public class VMProcess extends UserProcess {
 		int startVPage = Processor.pageFromAddress(vaddr),
 				endVPage = Processor.pageFromAddress(endAddr - 1),
 				totalAmount = 0;
+		reservePins(1);
 		for (int vpn = startVPage; vpn <= endVPage; vpn++) {
-			if (vpn >= numPages || (isWrite && pageTable[vpn].readOnly)) {
-				return totalAmount;
-			}
-
-			VMKernel.pinLock.acquire();
-
-			if (!pageTable[vpn].valid || pageTable[vpn].ppn == -1) {
-				// Lib.debug(dbgProcess, "makeAddress = " + Processor.makeAddress(vpn, 0));
-				// Lib.debug(dbgProcess, "vaddr = " + vaddr);
-				Lib.debug(dbgProcess, "pageTable[vpn] is invalid in helper");
-				handlePageFaultException(vaddr, true);
-				Lib.debug(dbgProcess, "after handle pageFaultException, is valid? " + pageTable[vpn].valid
-						+ ", ppn is " + pageTable[vpn].ppn);
-
+			if (pinPage(vpn, isWrite) == -1) {
+				break;
 			}
 
-			VMKernel.pinPage(pageTable[vpn].ppn);
-
-			VMKernel.pinLock.release();
-
-			pageTable[vpn].used = true;
-			if (isWrite) {
-				pageTable[vpn].dirty = true;
-			}
-			Lib.debug(dbgProcess, "ppn in helper: " + pageTable[vpn].ppn + ". vpn: " + vpn);
 			int pPageOffset = Processor.offsetFromAddress(vaddr),
 					pos = pageTable[vpn].ppn * pageSize + pPageOffset,
 					amount = Math.min(endAddr, (vpn + 1) * pageSize) - vaddr;
@@ -453,16 +739,372 @@ public class VMProcess extends UserProcess {
 			// byte[] memory = Machine.processor().getMemory();
 			arrayCopy(data, offset, Machine.processor().getMemory(), pos, amount, isWrite);
 
-			VMKernel.unpinPage(pageTable[vpn].ppn);
+			unpinPage(vpn);
 			vaddr = (vpn + 1) * pageSize;
 			totalAmount += amount;
 			offset += amount;
 
 		}
+		releasePins(1);
 
 		return totalAmount;
 	}
 
+	/**
+	 * Fault in a virtual page if needed and pin its frame so it cannot be
+	 * evicted until <tt>unpinPage()</tt> is called.
+	 * 
+	 * @param vpn      the virtual page to pin.
+	 * @param forWrite <tt>true</tt> if the kernel will write into the page.
+	 * @return the physical page number, or -1 if the page is outside the
+	 *         address space or is read-only and <tt>forWrite</tt> is set.
+	 */
+	protected int pinPage(int vpn, boolean forWrite) {
+		if (!inAddressSpace(vpn)) {
+			return -1;
+		}
+
+		VMKernel.pinLock.acquire();
+
+		if (!pageTable[vpn].valid || pageTable[vpn].ppn == -1) {
+			Lib.debug(dbgProcess, "pageTable[vpn] is invalid in pinPage");
+			handlePageFaultException(Processor.makeAddress(vpn, 0), true);
+		}
+		// readOnly is only known once the page has been loaded
+		if (forWrite && pageTable[vpn].readOnly) {
+			VMKernel.pinLock.release();
+			return -1;
+		}
+
+		VMKernel.pinPage(pageTable[vpn].ppn);
+
+		VMKernel.pinLock.release();
+
+		pageTable[vpn].used = true;
+		if (forWrite) {
+			pageTable[vpn].dirty = true;
+		}
+		return pageTable[vpn].ppn;
+	}
+
+	/**
+	 * Unpin a page pinned by <tt>pinPage()</tt>, so it may be evicted again.
+	 * 
+	 * @param vpn the virtual page to unpin.
+	 */
+	protected void unpinPage(int vpn) {
+		VMKernel.unpinPage(pageTable[vpn].ppn);
+	}
+
+	/**
+	 * Pin a virtual page only if it is resident, without faulting it in.
+	 * 
+	 * @param vpn      the virtual page to pin.
+	 * @param forWrite <tt>true</tt> if the kernel will write into the page.
+	 * @return the physical page number, or -1 if the page is not resident,
+	 *         outside the address space, or read-only and <tt>forWrite</tt>
+	 *         is set.
+	 */
+	protected int pinResidentPage(int vpn, boolean forWrite) {
+		if (!inAddressSpace(vpn)) {
+			return -1;
+		}
+
+		VMKernel.pinLock.acquire();
+
+		TranslationEntry entry = pageTable[vpn];
+		if (!entry.valid || entry.ppn == -1 || (forWrite && entry.readOnly)) {
+			VMKernel.pinLock.release();
+			return -1;
+		}
+		VMKernel.pinPage(entry.ppn);
+
+		VMKernel.pinLock.release();
+
+		entry.used = true;
+		if (forWrite) {
+			entry.dirty = true;
+		}
+		return entry.ppn;
+	}
+
+	/**
+	 * Return the most pages one file transfer may have pinned at once: half
+	 * of the pins that can be reserved, so that a transfer blocked in the
+	 * file system leaves pins for other processes.
+	 * 
+	 * @return the largest run of pages to pin, at least 1.
+	 */
+	protected int getMaxPinnedRun() {
+		return Math.max(1, VMKernel.maxPins / 2);
+	}
+
+	protected int reservePins(int count) {
+		return VMKernel.reservePins(count);
+	}
+
+	protected void releasePins(int count) {
+		VMKernel.releasePins(count);
+	}
+
+	/**
+	 * Handle the mmap() system call. The file is mapped at <i>vaddr</i>, which
+	 * must be page-aligned and above the rest of the address space, and its
+	 * pages are faulted in on first touch. Until the file descriptor is closed,
+	 * read() and write() on it fail.
+	 * 
+	 * @return the length of the file, or -1 on error.
+	 */
+	private int handleMmap(int fileDescriptor, int vaddr) {
+		OpenFile file = getFile(fileDescriptor);
+		if (file == null || findMap(fileDescriptor) != null) {
+			return -1;
+		}
+		int length = file.length();
+		if (length < 0 || vaddr <= 0 || Processor.offsetFromAddress(vaddr) != 0) {
+			return -1;
+		}
+
+		int firstVPN = Processor.pageFromAddress(vaddr);
+		int numMapPages = (length + pageSize - 1) / pageSize;
+		if (firstVPN < getHeapEndVPN() || firstVPN + numMapPages > maxVirtualPages) {
+			return -1;
+		}
+
+		VMKernel.pFExceptionLock.acquire();
+
+		for (int vpn = firstVPN; vpn < firstVPN + numMapPages && vpn < mapArr.length; vpn++) {
+			if (mapArr[vpn] != null) {
+				VMKernel.pFExceptionLock.release();
+				return -1;
+			}
+		}
+
+		growPageTable(firstVPN + numMapPages);
+		MemoryMap map = new MemoryMap(fileDescriptor, file, firstVPN, numMapPages, length);
+		for (int vpn = firstVPN; vpn < firstVPN + numMapPages; vpn++) {
+			mapArr[vpn] = map;
+		}
+		maps.add(map);
+
+		VMKernel.pFExceptionLock.release();
+
+		Lib.debug(dbgVM, "mapped fd " + fileDescriptor + " at vpn " + firstVPN + " (" + numMapPages + " pages)");
+		return length;
+	}
+
+	/**
+	 * Write back the dirty pages of a mapping, free its frames and remove it.
+	 * The caller must hold <tt>VMKernel.pFExceptionLock</tt>.
+	 */
+	private void unmap(MemoryMap map) {
+		for (int vpn = map.firstVPN; vpn < map.firstVPN + map.numPages; vpn++) {
+			if (pageTable[vpn].valid && -1 != pageTable[vpn].ppn) {
+				if (pageTable[vpn].dirty) {
+					writeBackMappedPage(vpn);
+				}
+				UserKernel.addFreePPage(pageTable[vpn].ppn);
+				VMKernel.removePPageFromIPT(pageTable[vpn].ppn);
+			}
+			pageTable[vpn] = untouched;
+			mapArr[vpn] = null;
+		}
+		maps.remove(map);
+	}
+
+	private MemoryMap findMap(int fileDescriptor) {
+		for (MemoryMap map : maps) {
+			if (map.fileDescriptor == fileDescriptor) {
+				return map;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Closing a mapped file descriptor removes the mapping first.
+	 */
+	protected int handleClose(int fileDescriptor) {
+		MemoryMap map = findMap(fileDescriptor);
+		if (map != null) {
+			VMKernel.pFExceptionLock.acquire();
+			unmap(map);
+			VMKernel.pFExceptionLock.release();
+		}
+		return super.handleClose(fileDescriptor);
+	}
+
+	/**
+	 * A mapped file can only be accessed through its mapping.
+	 */
+	protected int transferFile(OpenFile file, int pos, int vaddr, int length, boolean toMemory) {
+		for (MemoryMap map : maps) {
+			if (map.file == file) {
+				return -1;
+			}
+		}
+		return super.transferFile(file, pos, vaddr, length, toMemory);
+	}
+
+	/**
+	 * Handle the fork() system call. The child gets a copy of this address
+	 * space without copying any page: every resident frame is shared, and the
+	 * writable ones become read-only copy-on-write pages in both processes.
+	 * Swap pages are shared too. Processes with mapped files cannot fork.
+	 * 
+	 * @return the child's PID in the parent, or -1 on error.
+	 */
+	private int handleFork() {
+		if (!maps.isEmpty()) {
+			return -1;
+		}
+
+		VMProcess child = new VMProcess();
+
+		VMKernel.pinLock.acquire();
+		VMKernel.pFExceptionLock.acquire();
+
+		int length = pageTable.length;
+		child.numPages = numPages;
+		child.programBreak = programBreak;
+		child.pageTable = new TranslationEntry[length];
+		child.spnArr = new int[length];
+		child.mapArr = new MemoryMap[length];
+		child.cowArr = new boolean[length];
+		child.maps = new LinkedList<MemoryMap>();
+		child.pageKinds = pageKinds;
+		child.pageSections = pageSections;
+		child.sharedFrames = sharedFrames;
+		for (int vpn = 0; vpn < length; vpn++) {
+			TranslationEntry entry = pageTable[vpn];
+			if (entry.valid && -1 != entry.ppn) {
+				if (!entry.readOnly || cowArr[vpn]) {
+					entry.readOnly = true;
+					cowArr[vpn] = true;
+					child.cowArr[vpn] = true;
+				}
+				child.pageTable[vpn] = new TranslationEntry(vpn, entry.ppn, true, true, false, entry.dirty);
+				VMKernel.addSharer(entry.ppn, child);
+			} else {
+				child.pageTable[vpn] = untouched;
+			}
+
+			child.spnArr[vpn] = spnArr[vpn];
+			if (-1 != spnArr[vpn]) {
+				VMKernel.shareSwapPage(spnArr[vpn]);
+			}
+		}
+
+		VMKernel.pFExceptionLock.release();
+		VMKernel.pinLock.release();
+
+		return startForkedChild(child);
+	}
+
+	/**
+	 * Give this process its own copy of a copy-on-write page it just tried to
+	 * write. If no other process shares the frame any more, the page is just
+	 * made writable. The faulting instruction is then retried.
+	 */
+	protected void handleCopyOnWrite(int vpn) {
+		reservePins(1);
+		VMKernel.pinLock.acquire();
+		VMKernel.pFExceptionLock.acquire();
+
+		TranslationEntry entry = pageTable[vpn];
+		int sharedPPN = -1;
+		// if the frame was evicted meanwhile, the retry faults it back in
+		if (entry.valid && -1 != entry.ppn) {
+			VMKernel.PageInfo pageInfo = VMKernel.getPageInfo(entry.ppn);
+			if (pageInfo.isShared()) {
+				sharedPPN = entry.ppn;
+				// keep the frame we copy from from being chosen as the victim
+				VMKernel.pinPage(sharedPPN);
+				int ppn = findPPN(vpn);
+				byte[] memory = Machine.processor().getMemory();
+				System.arraycopy(memory, sharedPPN * pageSize, memory, ppn * pageSize, pageSize);
+
+				VMKernel.removeSharer(sharedPPN, this);
+				entry.ppn = ppn;
+				entry.readOnly = false;
+				entry.used = true;
+				entry.dirty = true;
+				VMKernel.addPPageToIPT(ppn, this, vpn);
+			} else {
+				entry.readOnly = false;
+			}
+			cowArr[vpn] = false;
+		}
+
+		VMKernel.pFExceptionLock.release();
+		VMKernel.pinLock.release();
+
+		if (-1 != sharedPPN) {
+			VMKernel.unpinPage(sharedPPN);
+		}
+		releasePins(1);
+	}
+
+	/**
+	 * Handle the system calls added by virtual memory, passing the rest to
+	 * <tt>UserProcess.handleSyscall()</tt>:
+	 * 
+	 * <table>
+	 * <tr>
+	 * <td>syscall#</td>
+	 * <td>syscall prototype</td>
+	 * </tr>
+	 * <tr>
+	 * <td>10</td>
+	 * <td><tt>int  mmap(int fd, char *address);</tt></td>
+	 * </tr>
+	 * <tr>
+	 * <td>17</td>
+	 * <td><tt>int  fork();</tt></td>
+	 * </tr>
+	 * </table>
+	 */
+	public int handleSyscall(int syscall, int a0, int a1, int a2, int a3) {
+		switch (syscall) {
+			case syscallMmap:
+				return handleMmap(a0, a1);
+			case syscallFork:
+				return handleFork();
+
+			default:
+				return super.handleSyscall(syscall, a0, a1, a2, a3);
+		}
+	}
+
+	/**
+	 * A file mapped into the address space by mmap().
+	 */
+	private static class MemoryMap {
+		MemoryMap(int fileDescriptor, OpenFile file, int firstVPN, int numPages, int length) {
+			this.fileDescriptor = fileDescriptor;
+			this.file = file;
+			this.firstVPN = firstVPN;
+			this.numPages = numPages;
+			this.length = length;
+		}
+
+		/** The offset in the file of a mapped page. */
+		int fileOffset(int vpn) {
+			return (vpn - firstVPN) * pageSize;
+		}
+
+		/** The number of bytes of the file backing a mapped page. */
+		int pageLength(int vpn) {
+			return Math.min(pageSize, length - fileOffset(vpn));
+		}
+
+		int fileDescriptor;
+
+		OpenFile file;
+
+		int firstVPN, numPages, length;
+	}
+
 	private void arrayCopy(byte[] data, int offset, byte[] memory, int pos, int amount, boolean isWrite) {
 		if (isWrite) {
 			System.arraycopy(data, offset, memory, pos, amount);
@@ -477,6 +1119,66 @@ public class VMProcess extends UserProcess {
 
 	private static final char dbgVM = 'v';
 
+	private static final int syscallMmap = 10, syscallFork = 17;
+
+	/**
+	 * The entry of every page that has never been faulted in. It is never
+	 * valid and never changed; <tt>mapPage()</tt> gives a page an entry of
+	 * its own before mapping it.
+	 */
+	private static final TranslationEntry untouched = new TranslationEntry(-1, -1, false, false, false, false);
+
+	/** Mappings must end below this page (16 MB). */
+	private static final int maxVirtualPages = 1 << 14;
+
 	public int[] spnArr;
 
+	/** The mapping each page belongs to, or <tt>null</tt>. */
+	private MemoryMap[] mapArr;
+
+	private LinkedList<MemoryMap> maps;
+
+	/** Pages that are read-only only until written, because of fork(). */
+	private boolean[] cowArr;
+
+	/**
+	 * What a page of the address space holds, and so where it comes from when
+	 * it is first touched.
+	 */
+	protected enum PageKind {
+		/** Code, loaded from the executable. */
+		TEXT,
+		/** Initialized data, loaded from the executable. */
+		DATA,
+		/** Uninitialized data, zero-filled by the executable's section. */
+		BSS,
+		/** The stack, zero-filled. */
+		STACK,
+		/** The page holding the program's arguments. */
+		ARGS,
+		/** Memory added by sbrk(), zero-filled. */
+		HEAP
+	}
+
+	/** The kind of each page of the program, stack and arguments. */
+	private PageKind[] pageKinds;
+
+	/**
+	 * For each executable page, its section in the high bits and its page
+	 * within the section in the low <tt>sectionShift</tt> bits; -1 for the
+	 * stack and arguments.
+	 */
+	private int[] pageSections;
+
+	/**
+	 * The shared page cache entry of each read-only section, or <tt>null</tt>
+	 * for a writable one.
+	 */
+	private int[][] sharedFrames;
+
+	private static final int sectionShift = 16, spnMask = (1 << sectionShift) - 1;
+
+	/** The fault-around window, and the page a sequential fault would hit. */
+	private int faultAroundWindow = VMKernel.faultAroundPages, nextSequentialVPN = -1;
+
 }
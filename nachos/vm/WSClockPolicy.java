@@ -0,0 +1,82 @@
+package nachos.vm;
+
+import nachos.machine.*;
+
+/**
+ * WSClock: the clock algorithm, but a page is only a candidate once it has
+ * gone unused for longer than the working set window, and clean candidates
+ * are taken before dirty ones so that an eviction rarely has to write to
+ * swap.
+ *
+ * <p>
+ * Each time the hand finds a frame's used bit set, it clears it and stamps
+ * the frame with the current time. In one sweep the hand takes the first
+ * clean page older than the window. Failing that it takes the oldest clean
+ * page it passed, then the oldest dirty page; if every page had been used,
+ * the second sweep takes the first one. The window is set with
+ * <tt>VMKernel.workingSetWindow</tt>, in ticks.
+ */
+public class WSClockPolicy extends ReplacementPolicy {
+	/**
+	 * Allocate a new WSClock policy.
+	 */
+	public WSClockPolicy() {
+		super();
+
+		lastUsed = new long[numFrames];
+		window = Config.getInteger("VMKernel.workingSetWindow", 5000);
+	}
+
+	public void pageLoaded(int ppn) {
+		lastUsed[ppn] = Machine.timer().getTime();
+	}
+
+	public void pageRemoved(int ppn) {
+	}
+
+	public int chooseVictim() {
+		long now = Machine.timer().getTime();
+		int oldestClean = -1, oldestDirty = -1;
+
+		for (int i = 0; i < 2 * numFrames; i++) {
+			// after a full sweep, settle for the best page seen
+			if (i == numFrames && (oldestClean != -1 || oldestDirty != -1))
+				break;
+
+			int ppn = hand;
+			hand = (hand + 1) % numFrames;
+
+			VMKernel.PageInfo pageInfo = VMKernel.getPageInfo(ppn);
+			if (!pageInfo.isInUse() || pageInfo.isPinned())
+				continue;
+
+			if (VMProcess.clearUsed(pageInfo)) {
+				lastUsed[ppn] = now;
+				continue;
+			}
+
+			if (VMProcess.isDirty(pageInfo)) {
+				if (oldestDirty == -1 || lastUsed[ppn] < lastUsed[oldestDirty])
+					oldestDirty = ppn;
+				continue;
+			}
+
+			if (now - lastUsed[ppn] > window)
+				return ppn;
+			if (oldestClean == -1 || lastUsed[ppn] < lastUsed[oldestClean])
+				oldestClean = ppn;
+		}
+
+		int victim = (oldestClean != -1) ? oldestClean : oldestDirty;
+		Lib.assertTrue(victim != -1);
+		hand = (victim + 1) % numFrames;
+		return victim;
+	}
+
+	/** When each frame's page was last seen used. */
+	private long[] lastUsed;
+
+	private long window;
+
+	private int hand = 0;
+}